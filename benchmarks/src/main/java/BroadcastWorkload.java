@@ -0,0 +1,79 @@
+import bench.Workload;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A room of `recipients` members on a server with no network, journal or logging; each run is
+// one member's chat message. Members queue what they are sent and write it out at once, so
+// references are taken and buffers go back to the pool as they do with a real writer.
+public class BroadcastWorkload implements Workload {
+    private final ChatServer server;
+    private final List<SinkConnection> members = new ArrayList<>();
+    private final SinkConnection sender;
+    private final MessageBodies bodies;
+
+    public BroadcastWorkload(int recipients, int textPercent) {
+        ServerConfig config = new ServerConfig();
+        config.setJournalDir("");
+        config.setLogLevel(ServerLog.Level.WARN);
+        server = new ChatServer(config, null, null);
+        for (int i = 0; i < recipients; i++) {
+            SinkConnection member = new SinkConnection(server);
+            String name = "user" + i;
+            // Spreads the text clients through the room rather than bunching them at the end
+            boolean text = i % 100 < textPercent;
+            member.clientName = server.completeHandshake(member, text ? name : ChatProtocol.helloLine(name));
+            server.addConnection(member);
+            server.clientJoined(member);
+            members.add(member);
+        }
+        sender = members.get(0);
+        bodies = new MessageBodies(1024, 42, sender.getClientName() + ": ");
+    }
+
+    @Override
+    public Object run() {
+        server.handleMessage(sender, ChatMessage.of(ChatMessage.Type.CHAT, bodies.next()));
+        return sender;
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.stopServer();
+    }
+
+    // Stands in for a socket and its writer
+    static final class SinkConnection extends ChatServer.Connection {
+        private final OutboundQueue<EncodedMessage> queue =
+                new OutboundQueue<>(1024, ServerConfig.OverflowPolicy.DROP_OLDEST, EncodedMessage::release);
+        long bytesWritten;
+
+        SinkConnection(ChatServer server) {
+            super(server.getBufferPool(), server.nextConnectionId());
+        }
+
+        @Override
+        void enqueue(EncodedMessage message, boolean handshake) {
+            message.retain();
+            if (handshake) {
+                queue.offerHandshake(message);
+            } else {
+                queue.offer(message);
+            }
+            EncodedMessage written;
+            while ((written = queue.poll()) != null) {
+                bytesWritten += written.length();
+                written.release();
+            }
+        }
+
+        @Override
+        int queueDepth() {
+            return queue.size();
+        }
+
+        @Override
+        void close() {
+        }
+    }
+}
\ No newline at end of file
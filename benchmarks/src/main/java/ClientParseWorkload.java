@@ -0,0 +1,64 @@
+import bench.Workload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// The client's reader thread and the GUI's per-message work, over a stream of 1024 messages
+// from a few dozen senders that repeats forever
+public class ClientParseWorkload implements Workload {
+    private final boolean binary;
+    private final ProtocolReader reader;
+
+    public ClientParseWorkload(String framing) {
+        binary = ChatProtocol.Framing.valueOf(framing) == ChatProtocol.Framing.BINARY;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < 1024; i++) {
+            MessageBodies bodies = new MessageBodies(1, i, "user" + (i % 40) + ": ");
+            ChatMessage message = new ChatMessage(ChatMessage.Type.CHAT, 1 + i % 40, i + 1, timestamp + i * 250L,
+                    bodies.next());
+            byte[] bytes = binary ? ChatProtocol.encodeFrame(message)
+                    : (ChatProtocol.toLegacyLine(message) + "\n").getBytes(StandardCharsets.UTF_8);
+            stream.write(bytes, 0, bytes.length);
+        }
+        reader = new ProtocolReader(new Replay(stream.toByteArray()), 64 * 1024);
+    }
+
+    @Override
+    public Object run() {
+        try {
+            ChatMessage message = binary ? reader.readFrame() : ChatProtocol.fromServerLine(reader.readLine());
+            return ChatClientGUI.bubble(message, false, "me");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Serves the same bytes over and over, as if the server never stopped talking
+    private static final class Replay extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        Replay(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[position] & 0xff;
+            position = (position + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, count);
+            position = (position + count) % data.length;
+            return count;
+        }
+    }
+}
\ No newline at end of file
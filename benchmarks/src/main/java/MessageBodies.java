@@ -0,0 +1,64 @@
+import java.util.Random;
+
+// Chat text the way people type it: mostly a few words, sometimes a paragraph, now and then a
+// pasted block, with emoji in about one message in eight. Seeded, so every run and every fork
+// sees the same messages.
+final class MessageBodies {
+    private static final String[] WORDS = {
+            "ok", "yes", "no", "lol", "thanks", "see", "you", "later", "the", "build", "is", "green", "again",
+            "meeting", "moved", "to", "three", "can", "someone", "review", "my", "change", "please", "lunch",
+            "anyone", "deploy", "looks", "good", "here", "what", "about", "tomorrow", "I", "think", "so"
+    };
+    private static final String[] EMOJI = {"😀", "👍", "🎉", "🔥", "❤️", "😂"};
+
+    private final String[] bodies;
+    private int next;
+
+    // count must be a power of two
+    MessageBodies(int count, long seed, String prefix) {
+        Random random = new Random(seed);
+        bodies = new String[count];
+        for (int i = 0; i < count; i++) {
+            bodies[i] = prefix + text(random, length(random));
+        }
+    }
+
+    String next() {
+        String body = bodies[next];
+        next = (next + 1) & (bodies.length - 1);
+        return body;
+    }
+
+    String get(int index) {
+        return bodies[index & (bodies.length - 1)];
+    }
+
+    // 60% up to 40 chars, 30% up to 200, 9% up to 1000, 1% up to 4000
+    private static int length(Random random) {
+        int bucket = random.nextInt(100);
+        if (bucket < 60) {
+            return 5 + random.nextInt(35);
+        }
+        if (bucket < 90) {
+            return 40 + random.nextInt(160);
+        }
+        if (bucket < 99) {
+            return 200 + random.nextInt(800);
+        }
+        return 1000 + random.nextInt(3000);
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 8);
+        while (text.length() < length) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextInt(8) == 0) {
+            text.append(' ').append(EMOJI[random.nextInt(EMOJI.length)]);
+        }
+        return text.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+import bench.Workload;
+
+// The clock read keeps its result in a field and returns the workload itself, so the
+// measurement is not of boxing a long
+public class MessageFormatWorkload implements Workload {
+    private final String operation;
+    private final MessageBodies bodies = new MessageBodies(1024, 42, "user7: ");
+    private final BufferPool pool = new BufferPool(2048, 64);
+    private long seq;
+    private long millis;
+
+    public MessageFormatWorkload(String operation) {
+        this.operation = operation;
+    }
+
+    @Override
+    public Object run() {
+        switch (operation) {
+            case "systemClock":
+                millis = System.currentTimeMillis();
+                return this;
+            case "textLine":
+                return ChatProtocol.toLegacyLine(nextMessage());
+            case "binaryFrame":
+                EncodedMessage encoded = EncodedMessage.encodeFrame(nextMessage(), pool);
+                encoded.release();
+                return encoded;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    // Stamped the way the server stamps a broadcast
+    private ChatMessage nextMessage() {
+        return new ChatMessage(ChatMessage.Type.CHAT, 7, ++seq, System.currentTimeMillis(), bodies.next());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+import bench.Workload;
+
+public class NameAllocationWorkload implements Workload {
+    private final NameAllocator<Object> allocator = new NameAllocator<>();
+    private final Object owner = new Object();
+    private final String[] requested = new String[1024];
+    private int next;
+
+    public NameAllocationWorkload(int online, String names) {
+        boolean taken = names.equals("taken");
+        for (int i = 0; i < online; i++) {
+            allocator.allocate(taken ? "bot" : "user" + i, new Object());
+        }
+        for (int i = 0; i < requested.length; i++) {
+            requested[i] = taken ? "bot" : "guest" + i;
+        }
+    }
+
+    @Override
+    public Object run() {
+        String name = allocator.allocate(requested[next], owner);
+        next = (next + 1) & (requested.length - 1);
+        allocator.release(name, owner);
+        return name;
+    }
+}
\ No newline at end of file
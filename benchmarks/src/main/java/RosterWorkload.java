@@ -0,0 +1,46 @@
+import bench.Workload;
+
+public class RosterWorkload implements Workload {
+    private final String operation;
+    private final Presence presence = new Presence();
+    private final RosterListModel model = new RosterListModel("🟢 ", "(Nobody online)");
+    private final BufferPool pool = new BufferPool(2048, 64);
+    private final String[] names;
+    private int runs;
+
+    public RosterWorkload(int online, String operation) {
+        this.operation = operation;
+        names = new String[online];
+        for (int i = 0; i < online; i++) {
+            names[i] = "user" + i;
+            presence.add(names[i]);
+        }
+        model.reset(presence.names());
+        model.flush();
+    }
+
+    @Override
+    public Object run() {
+        switch (operation) {
+            case "snapshot":
+                // What RosterPublisher.subscribe() sends a joining client
+                ChatMessage users = new ChatMessage(ChatMessage.Type.USERS, 0, 0, System.currentTimeMillis(),
+                        String.join("\n", presence.names()));
+                EncodedMessage encoded = EncodedMessage.encodeFrame(users, pool);
+                encoded.release();
+                return encoded;
+            case "delta":
+                // Every name goes offline and then comes back
+                String name = names[(runs >> 1) % names.length];
+                model.presenceChanged(name, (runs++ & 1) != 0);
+                model.flush();
+                return model;
+            case "rebuild":
+                model.reset(presence.names());
+                model.flush();
+                return model;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+}
\ No newline at end of file
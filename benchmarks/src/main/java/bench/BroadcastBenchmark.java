@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// One chat message from one member of a room, delivered to everyone in it: sequence number,
+// encoding once per framing, and a retain/queue/release per recipient. The sockets are replaced
+// by in-memory queues, so this is the server's own cost of a fan-out.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    int recipients;
+
+    // Share of the room on legacy text framing, in percent; they need a second encoding
+    @Param({"0", "10"})
+    int textPercent;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("BroadcastWorkload", recipients, textPercent);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.close();
+    }
+
+    @Benchmark
+    public void broadcast(Blackhole blackhole) {
+        blackhole.consume(workload.run());
+    }
+}
\ No newline at end of file
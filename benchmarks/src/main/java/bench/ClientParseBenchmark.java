@@ -0,0 +1,31 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// What the client does with each incoming message before the EDT sees it: read it off the
+// stream (a binary frame or a legacy text line), parse it, and turn it into a chat bubble.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientParseBenchmark {
+    @Param({"BINARY", "TEXT"})
+    String framing;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("ClientParseWorkload", framing);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        blackhole.consume(workload.run());
+    }
+}
\ No newline at end of file
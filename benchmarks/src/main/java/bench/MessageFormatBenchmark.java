@@ -0,0 +1,31 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-message formatting on the server: reading the clock, stamping and formatting a legacy
+// text line, and encoding a binary frame into a pooled buffer, over realistic message sizes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageFormatBenchmark {
+    @Param({"systemClock", "textLine", "binaryFrame"})
+    String operation;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("MessageFormatWorkload", operation);
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole) {
+        blackhole.consume(workload.run());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// A login's name allocation followed by the logout's release, with `online` names already
+// taken. "unique" asks for a free name; "taken" asks for one that is in use by everyone, as in
+// a storm of bots with the same name, and gets a numbered suffix.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NameAllocationBenchmark {
+    @Param({"100", "10000"})
+    int online;
+
+    @Param({"unique", "taken"})
+    String names;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("NameAllocationWorkload", online, names);
+    }
+
+    @Benchmark
+    public void allocateAndRelease(Blackhole blackhole) {
+        blackhole.consume(workload.run());
+    }
+}
\ No newline at end of file
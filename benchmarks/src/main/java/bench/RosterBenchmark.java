@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Keeping the list of online users current with `online` users: "snapshot" is the server's
+// USERS body for a joining client, "delta" a client applying one login or logout, and "rebuild"
+// a client replacing its whole list, as every change used to cost.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RosterBenchmark {
+    @Param({"100", "10000"})
+    int online;
+
+    @Param({"snapshot", "delta", "rebuild"})
+    String operation;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("RosterWorkload", online, operation);
+    }
+
+    @Benchmark
+    public void update(Blackhole blackhole) {
+        blackhole.consume(workload.run());
+    }
+}
\ No newline at end of file
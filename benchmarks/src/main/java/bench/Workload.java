@@ -0,0 +1,22 @@
+package bench;
+
+import java.lang.reflect.Constructor;
+
+// One hot path of the chat code, set up and ready to run. The chat classes live in the default
+// package, which JMH will not generate benchmarks into and no named package can import, so the
+// benchmarks here drive default-package workloads (benchmarks/src/main/java) through this
+// interface instead. The workloads share the unnamed package with the app and reach its
+// package-private internals directly.
+public interface Workload {
+    // One operation; the result goes to the Blackhole so the JIT cannot drop the work
+    Object run();
+
+    default void close() throws Exception {
+    }
+
+    // Workload classes have a single public constructor taking the benchmark's parameters
+    static Workload create(String className, Object... args) throws Exception {
+        Constructor<?> constructor = Class.forName(className).getConstructors()[0];
+        return (Workload) constructor.newInstance(args);
+    }
+}
\ No newline at end of file
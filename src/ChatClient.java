@@ -1,74 +1,406 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class ChatClient {
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private Consumer<String> onMessageReceived;
+    private static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+    // Sends waiting for the writer thread; past this, sendMessage() refuses instead of blocking
+    private static final int MAX_PENDING_SENDS = 1024;
+    // Pending sends at which the client reports itself congested
+    private static final int CONGESTED_AT = MAX_PENDING_SENDS / 2;
+    private static final int MAX_WRITE_BATCH = 64;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 3000;
+    // Reconnect delays double from the base up to the cap, each picked at random from its upper
+    // half, so clients dropped together do not all come back in the same instant
+    private static final long RECONNECT_BASE_MILLIS = 250;
+    private static final long RECONNECT_MAX_MILLIS = 8000;
+    private static final int RECONNECT_ATTEMPTS = 10;
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+    private volatile Socket socket;
+    private volatile OutputStream out;
+    private ProtocolReader in;
+    private Consumer<ChatMessage> onMessageReceived = message -> {
+    };
+    // Whether the current connection's handshake reply has been read yet
+    private boolean handshakeRead;
+    // An old server's first line: it ends the handshake, then goes to the listener like the rest
+    private ChatMessage firstMessage;
     private String actualName;
+    private boolean requestBinary = true;
+    private volatile boolean binary;
+    private volatile int clientId;
+    private volatile long lastSeq;
+    // Sends wait until the server has answered the handshake, so they use the agreed framing;
+    // replaced (before the new stream) on each reconnect
+    private volatile CountDownLatch handshake = new CountDownLatch(1);
+    // Handed out by a binary server; with lastSeq it lets a reconnect pick up where we were
+    private volatile String resumeKey;
+    // Set when we are leaving (EXIT or close()) or the server is stopping: no reconnecting then
+    private volatile boolean closing;
+    // Messages are written by one writer thread, so callers (the EDT above all) never wait on
+    // the socket; everything queued since its last pass goes out with one flush
+    private final BlockingQueue<ChatMessage> outbound = new ArrayBlockingQueue<>(MAX_PENDING_SENDS);
+    private final Object congestionLock = new Object();
+    private boolean congested;
+    private Consumer<Boolean> onCongestionChanged = congested -> {
+    };
+    private volatile boolean writerStopped;
+    // Counts down once the writer has flushed an EXIT
+    private final CountDownLatch exitWritten = new CountDownLatch(1);
 
-    public ChatClient(String host, int port, Consumer<String> onMessageReceived) {
+    public ChatClient(String host, int port, Consumer<ChatMessage> onMessageReceived) {
+        this.address = new InetSocketAddress(host, port);
+        this.connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
         this.onMessageReceived = onMessageReceived;
         try {
-            socket = new Socket();
-            socket.connect(new InetSocketAddress(host, port), 3000);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            connect();
         } catch (IOException e) {
             System.err.println("Error connecting to server: " + e.getMessage());
             throw new RuntimeException(e);
         }
     }
 
+    // Connects without a listener yet, for a caller that joins first and hands the client on
+    public ChatClient(String host, int port, int connectTimeoutMillis) throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        connect();
+    }
+
+    private void connect() throws IOException {
+        Socket connected = new Socket();
+        connected.setTcpNoDelay(true);
+        connected.connect(address, connectTimeoutMillis);
+        handshakeRead = false;
+        in = new ProtocolReader(connected.getInputStream(), MAX_MESSAGE_BYTES);
+        // No autoflush: each send flushes once, so a multi-line send is a single write
+        out = new BufferedOutputStream(connected.getOutputStream());
+        socket = connected;
+    }
+
+    // Turn off for servers that predate the handshake; they would take "PROTO:BIN1 name" as the name
+    public void setRequestBinary(boolean requestBinary) {
+        this.requestBinary = requestBinary;
+    }
+
+    // Gets every message from the server, on the reader thread; set before startClient()
+    public void setMessageListener(Consumer<ChatMessage> onMessageReceived) {
+        this.onMessageReceived = onMessageReceived;
+    }
+
+    // Told (on the sending or the writer thread) when sends start piling up and when they have
+    // drained, e.g. to grey out a Send button
+    public void setCongestionListener(Consumer<Boolean> onCongestionChanged) {
+        this.onCongestionChanged = onCongestionChanged;
+    }
+
     public void startClient() {
+        Thread writer = new Thread(this::writeLoop, "chat-client-writer");
+        writer.setDaemon(true);
+        writer.start();
         new Thread(() -> {
-            try {
-                String message;
-                while ((message = in.readLine()) != null) {
-                    if (message.equals("SUBMIT_NAME")) {
-                        continue;
-                    }
-                    // Handle name change notification
-                    if (message.startsWith("NAME_CHANGED:")) {
-                        actualName = message.substring(13);
+            do {
+                try {
+                    ChatMessage message;
+                    while ((message = readMessage()) != null) {
+                        // Handle name change notification
+                        if (message.getType() == ChatMessage.Type.NAME_CHANGED) {
+                            actualName = message.getBody();
+                        }
+                        if (message.getType() == ChatMessage.Type.SERVER_STOPPED) {
+                            closing = true;
+                        }
+                        if (message.getSeq() > lastSeq) {
+                            lastSeq = message.getSeq();
+                        }
                         onMessageReceived.accept(message);
-                        continue;
                     }
-                    onMessageReceived.accept(message);
+                } catch (IOException | IllegalArgumentException e) {
+                    if (!closing) {
+                        System.err.println("Error receiving messages: " + e.getMessage());
+                    }
+                }
+                handshake.countDown();
+            } while (reconnect());
+            // Wakes the writer, which drops what is left
+            writerStopped = true;
+            writer.interrupt();
+            onMessageReceived.accept(ChatMessage.of(ChatMessage.Type.DISCONNECTED, "SERVER_DISCONNECTED"));
+        }, "chat-client-reader").start();
+    }
+
+    // After a drop, tries to take the session back with jittered exponential backoff. Queued
+    // sends wait for the new connection. Returns false when giving up (or not allowed to try).
+    private boolean reconnect() {
+        if (closing || resumeKey == null) {
+            return false;
+        }
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS && !closing; attempt++) {
+            long ceiling = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << attempt);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (attempt == 1) {
+                // The quick first try failed: no longer a blip the user need not hear about
+                onMessageReceived.accept(ChatMessage.of(ChatMessage.Type.SYSTEM, "Connection lost, reconnecting..."));
+            }
+            try {
+                handshake = new CountDownLatch(1);
+                binary = false;
+                connect();
+                synchronized (out) {
+                    writeLine(ChatProtocol.resumeLine(resumeKey, lastSeq, actualName));
+                    out.flush();
+                }
+                if (attempt >= 1) {
+                    onMessageReceived.accept(ChatMessage.of(ChatMessage.Type.SYSTEM, "Reconnected"));
                 }
-                onMessageReceived.accept("SERVER_DISCONNECTED");
+                return true;
             } catch (IOException e) {
-                System.err.println("Error receiving messages: " + e.getMessage());
-                onMessageReceived.accept("SERVER_DISCONNECTED");
+                // Try again after a longer pause
             }
-        }).start();
+        }
+        return false;
     }
 
-    public void sendMessage(String message) {
-        out.println(message);
+    private ChatMessage readMessage() throws IOException {
+        if (!handshakeRead) {
+            readHandshake();
+        }
+        if (firstMessage != null) {
+            ChatMessage message = firstMessage;
+            firstMessage = null;
+            return message;
+        }
+        if (binary) {
+            return in.readFrame();
+        }
+        String line = in.readLine();
+        return line == null ? null : ChatProtocol.fromServerLine(line);
+    }
+
+    private void readHandshake() throws IOException {
+        while (true) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Connection closed by server");
+            }
+            if (line.equals("SUBMIT_NAME")) {
+                continue;
+            }
+            if (line.startsWith(ChatProtocol.PROTO_PREFIX)) {
+                String[] reply = line.substring(ChatProtocol.PROTO_PREFIX.length()).split(" ");
+                // RESUMED: the server kept our session and follows with what we missed
+                if (reply[0].equals(ChatProtocol.BINARY_V1) || reply[0].equals(ChatProtocol.RESUMED)) {
+                    clientId = Integer.parseInt(reply[1]);
+                    resumeKey = reply.length > 2 ? reply[2] : null;
+                    binary = true;
+                }
+            } else {
+                // An old server never answers the handshake; its first real line settles it
+                firstMessage = ChatProtocol.fromServerLine(line);
+            }
+            handshakeRead = true;
+            handshake.countDown();
+            return;
+        }
+    }
+
+    // Sends the name and waits, on the calling thread, for the server to take it, so a login
+    // screen can report a failure before opening the chat window. Anything the server sends
+    // after that waits in the socket until startClient(). Without binary framing there is no
+    // reply to wait for.
+    public void join(String name, int timeoutMillis) throws IOException {
+        this.actualName = name;
+        synchronized (out) {
+            writeLine(requestBinary ? ChatProtocol.helloLine(name) : name);
+            out.flush();
+        }
+        if (!requestBinary) {
+            handshake.countDown();
+            return;
+        }
+        socket.setSoTimeout(timeoutMillis);
+        try {
+            readHandshake();
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // Queues the message and returns at once; false if too many sends are still waiting
+    public boolean sendMessage(String message) {
+        if (writerStopped || !outbound.offer(ChatMessage.of(ChatMessage.Type.CHAT, message))) {
+            return false;
+        }
+        updateCongestion();
+        return true;
+    }
+
+    // Queues several messages, waiting for room if need be, so not for the EDT
+    public void sendMessages(Iterable<String> messages) {
+        try {
+            for (String message : messages) {
+                if (writerStopped) {
+                    return;
+                }
+                outbound.put(ChatMessage.of(ChatMessage.Type.CHAT, message));
+                updateCongestion();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sends still waiting for the writer
+    public int getPendingSends() {
+        return outbound.size();
+    }
+
+    public boolean isCongested() {
+        synchronized (congestionLock) {
+            return congested;
+        }
     }
 
     public void sendName(String name) {
         this.actualName = name;
-        out.println(name);
+        OutputStream target = out;
+        synchronized (target) {
+            try {
+                writeLine(requestBinary ? ChatProtocol.helloLine(name) : name);
+                target.flush();
+            } catch (IOException e) {
+                System.err.println("Error sending message: " + e.getMessage());
+            }
+        }
+        if (!requestBinary) {
+            handshake.countDown();
+        }
     }
 
     public String getActualName() {
         return actualName;
     }
 
+    // Server-assigned id carried in binary frames; 0 in text mode
+    public int getClientId() {
+        return clientId;
+    }
+
+    // Highest server sequence number received so far; 0 in text mode, which carries none
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Queues EXIT behind any pending sends and waits briefly for it to be written
     public void sendExit() {
-        out.println("EXIT");
+        closing = true;
+        try {
+            if (!writerStopped && outbound.offer(ChatMessage.of(ChatMessage.Type.EXIT, "EXIT"), 1, TimeUnit.SECONDS)) {
+                exitWritten.await(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<ChatMessage> batch = new ArrayList<>(MAX_WRITE_BATCH);
+        try {
+            while (!writerStopped) {
+                if (batch.isEmpty()) {
+                    batch.add(outbound.take());
+                    outbound.drainTo(batch, MAX_WRITE_BATCH - 1);
+                }
+                awaitHandshake();
+                OutputStream target = out;
+                try {
+                    synchronized (target) {
+                        for (ChatMessage message : batch) {
+                            write(target, message.getType(), message.getBody());
+                        }
+                        target.flush();
+                    }
+                } catch (IOException e) {
+                    // The batch is kept for the next connection, if the reader gets one
+                    while (!writerStopped && out == target) {
+                        Thread.sleep(50);
+                    }
+                    continue;
+                }
+                for (ChatMessage message : batch) {
+                    if (message.getType() == ChatMessage.Type.EXIT) {
+                        exitWritten.countDown();
+                    }
+                }
+                batch.clear();
+                updateCongestion();
+            }
+        } catch (InterruptedException e) {
+            // The reader gave up on the connection
+        }
+        // Later sends are refused
+        writerStopped = true;
+        outbound.clear();
+        exitWritten.countDown();
+        updateCongestion();
+    }
+
+    private void updateCongestion() {
+        boolean now;
+        synchronized (congestionLock) {
+            int pending = outbound.size();
+            // Congested from half full until completely drained, so it does not flicker
+            now = congested ? pending > 0 : pending >= CONGESTED_AT;
+            if (now == congested) {
+                return;
+            }
+            congested = now;
+        }
+        onCongestionChanged.accept(now);
+    }
+
+    private void awaitHandshake() {
+        try {
+            handshake.await(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(OutputStream target, ChatMessage.Type type, String text) throws IOException {
+        if (binary) {
+            target.write(ChatProtocol.encodeFrame(ChatMessage.of(type, text)));
+        } else {
+            target.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
     }
 
     public void close() throws IOException {
-        if (in != null)
-            in.close();
-        if (out != null)
-            out.close();
-        if (socket != null && !socket.isClosed())
-            socket.close();
+        closing = true;
+        Socket current = socket;
+        if (current != null && !current.isClosed())
+            current.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+// One protocol message as both sides see it, whichever framing carried it. In binary framing
+// every field travels in the frame header; in the legacy text protocol the type is implied by
+// the line's shape and senderId/seq are unknown (0).
+public class ChatMessage {
+    public enum Type {
+        // Not sent on the wire: the client reports a lost connection with it
+        DISCONNECTED(0),
+        CHAT(1),
+        SYSTEM(2),
+        NAME_CHANGED(3),
+        SERVER_STOPPED(4),
+        EXIT(5),
+        USERS(6),
+        // A direct message; the sender gets a copy too
+        PRIVATE(7),
+        // Roster changes since the last one: '\n'-separated "+name" / "-name" entries
+        PRESENCE(8);
+
+        private static final Type[] BY_CODE = new Type[9];
+
+        static {
+            for (Type type : values()) {
+                BY_CODE[type.code] = type;
+            }
+        }
+
+        private final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        public static Type fromCode(byte code) {
+            Type type = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown message type " + code);
+            }
+            return type;
+        }
+    }
+
+    private final Type type;
+    private final int senderId;
+    private final long seq;
+    private final long timestamp;
+    private final String body;
+
+    public ChatMessage(Type type, int senderId, long seq, long timestamp, String body) {
+        this.type = type;
+        this.senderId = senderId;
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.body = body;
+    }
+
+    public static ChatMessage of(Type type, String body) {
+        return new ChatMessage(type, 0, 0, System.currentTimeMillis(), body);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    // Epoch millis
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return type + "#" + seq + " from " + senderId + ": " + body;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,199 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Wire formats shared by ChatServer and ChatClient.
+//
+// Legacy text: one '\n'-terminated UTF-8 line per message, types guessed from the text.
+//
+// Binary (negotiated): a new client answers SUBMIT_NAME with "PROTO:BIN1 <name>". A server
+// that agrees replies "PROTO:BIN1 <clientId> <resumeKey>" and both sides switch to frames right
+// after that line; otherwise it replies "PROTO:TEXT". Old clients send a bare name and never see
+// either. A binary client that lost its connection answers "PROTO:RESUME1 <resumeKey> <lastSeq>
+// <name>" instead; if its session is still held the server replies "PROTO:RESUMED <clientId>
+// <resumeKey>" and sends what the client missed, otherwise it is a new login. Each frame is
+//
+//   int length | byte type | int senderId | long seq | long timestamp | UTF-8 body
+//
+// where length counts every byte after the length field itself (big-endian throughout).
+final class ChatProtocol {
+    enum Framing {
+        TEXT, BINARY
+    }
+
+    static final String PROTO_PREFIX = "PROTO:";
+    static final String BINARY_V1 = "BIN1";
+    static final String RESUME_V1 = "RESUME1";
+    static final String RESUMED = "RESUMED";
+    static final String TEXT = "TEXT";
+    // type + senderId + seq + timestamp
+    static final int FRAME_HEADER_BYTES = 1 + 4 + 8 + 8;
+
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss dd/MM/yyyy")
+            .withZone(ZoneId.systemDefault());
+
+    // The legacy stamp only changes once a second, so the last one formatted is reused
+    private static final class Stamp {
+        final long second;
+        final String text;
+
+        Stamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private static volatile Stamp lastStamp = new Stamp(Long.MIN_VALUE, "");
+
+    private ChatProtocol() {
+    }
+
+    // The client's reply to SUBMIT_NAME: the proposed name, whether it asked for frames and, when
+    // reconnecting, the session it wants back and the last sequence number it saw
+    static final class Hello {
+        final String proposedName;
+        final boolean wantsBinary;
+        final String resumeKey;
+        final long lastSeq;
+
+        private Hello(String proposedName, boolean wantsBinary, String resumeKey, long lastSeq) {
+            this.proposedName = proposedName;
+            this.wantsBinary = wantsBinary;
+            this.resumeKey = resumeKey;
+            this.lastSeq = lastSeq;
+        }
+    }
+
+    static Hello parseHello(String line) {
+        String prefix = PROTO_PREFIX + BINARY_V1 + " ";
+        if (line != null && line.startsWith(prefix)) {
+            return new Hello(line.substring(prefix.length()), true, null, 0);
+        }
+        String resume = PROTO_PREFIX + RESUME_V1 + " ";
+        if (line != null && line.startsWith(resume)) {
+            String[] parts = line.substring(resume.length()).split(" ", 3);
+            if (parts.length == 3 && parts[1].matches("\\d{1,18}")) {
+                return new Hello(parts[2], true, parts[0], Long.parseLong(parts[1]));
+            }
+        }
+        return new Hello(line, false, null, 0);
+    }
+
+    static String helloLine(String name) {
+        return PROTO_PREFIX + BINARY_V1 + " " + name;
+    }
+
+    static String resumeLine(String resumeKey, long lastSeq, String name) {
+        return PROTO_PREFIX + RESUME_V1 + " " + resumeKey + " " + lastSeq + " " + name;
+    }
+
+    // How a server message looks to a text-mode client. Always one line: a line break in a body
+    // would reach the client as a protocol line of its own (SERVER_STOPPED, NAME_CHANGED:...).
+    static String toLegacyLine(ChatMessage message) {
+        switch (message.getType()) {
+            case CHAT:
+            case PRIVATE:
+                return legacyStamp(message.getTimestamp()) + " - " + singleLine(message.getBody());
+            case NAME_CHANGED:
+                return "NAME_CHANGED:" + message.getBody();
+            case SERVER_STOPPED:
+                return "SERVER_STOPPED";
+            case EXIT:
+                return "EXIT";
+            case USERS:
+                // The body lists one name per line
+                return "USERS: " + message.getBody().replace("\n", ", ");
+            default:
+                return singleLine(message.getBody());
+        }
+    }
+
+    // Line breaks turned into spaces. Binary frames can carry them; text lines cannot.
+    static String singleLine(String text) {
+        if (text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return text.replaceAll("[\r\n]+", " ");
+    }
+
+    private static String legacyStamp(long timestamp) {
+        long second = Math.floorDiv(timestamp, 1000);
+        Stamp stamp = lastStamp;
+        if (stamp.second != second) {
+            stamp = new Stamp(second, TIMESTAMP_FORMAT.format(Instant.ofEpochSecond(second)));
+            lastStamp = stamp;
+        }
+        return stamp.text;
+    }
+
+    // A line from a text-mode client
+    static ChatMessage fromClientLine(String line) {
+        return ChatMessage.of(line.equals("EXIT") ? ChatMessage.Type.EXIT : ChatMessage.Type.CHAT, line);
+    }
+
+    // A line from a text-mode server; the type has to be guessed from the text
+    static ChatMessage fromServerLine(String line) {
+        if (line.startsWith("NAME_CHANGED:")) {
+            return ChatMessage.of(ChatMessage.Type.NAME_CHANGED, line.substring(13));
+        }
+        if (line.equals("SERVER_STOPPED")) {
+            return ChatMessage.of(ChatMessage.Type.SERVER_STOPPED, line);
+        }
+        if (line.startsWith("USERS: ")) {
+            return ChatMessage.of(ChatMessage.Type.USERS, line.substring(7).replace(", ", "\n"));
+        }
+        if (line.contains("joined") || line.contains("left")) {
+            return ChatMessage.of(ChatMessage.Type.SYSTEM, line);
+        }
+        String[] parts = line.split(" - ", 2);
+        if (parts.length == 2) {
+            try {
+                long timestamp = LocalDateTime.parse(parts[0], TIMESTAMP_FORMAT).atZone(ZoneId.systemDefault())
+                        .toInstant().toEpochMilli();
+                return new ChatMessage(ChatMessage.Type.CHAT, 0, 0, timestamp, parts[1]);
+            } catch (DateTimeParseException e) {
+                // Not a stamped line; show it as it came
+            }
+        }
+        return ChatMessage.of(ChatMessage.Type.CHAT, line);
+    }
+
+    // Client-side encoding; the server encodes into pooled buffers instead (EncodedMessage)
+    static byte[] encodeFrame(ChatMessage message) {
+        byte[] body = message.getBody().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + FRAME_HEADER_BYTES + body.length);
+        frame.putInt(FRAME_HEADER_BYTES + body.length);
+        frame.put(message.getType().getCode());
+        frame.putInt(message.getSenderId());
+        frame.putLong(message.getSeq());
+        frame.putLong(message.getTimestamp());
+        frame.put(body);
+        return frame.array();
+    }
+
+    // Decodes one frame whose length prefix has already been consumed
+    static ChatMessage decodeFrame(byte[] frame, int offset, int length) {
+        if (length < FRAME_HEADER_BYTES) {
+            throw new IllegalArgumentException("Frame too short: " + length);
+        }
+        ChatMessage.Type type = ChatMessage.Type.fromCode(frame[offset]);
+        int senderId = readInt(frame, offset + 1);
+        long seq = readLong(frame, offset + 5);
+        long timestamp = readLong(frame, offset + 13);
+        String body = new String(frame, offset + FRAME_HEADER_BYTES, length - FRAME_HEADER_BYTES,
+                StandardCharsets.UTF_8);
+        return new ChatMessage(type, senderId, seq, timestamp, body);
+    }
+
+    static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+
+    static long readLong(byte[] b, int i) {
+        return (long) readInt(b, i) << 32 | (readInt(b, i + 4) & 0xFFFFFFFFL);
+    }
+}
\ No newline at end of file
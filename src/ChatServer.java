@@ -1,175 +1,939 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 public class ChatServer {
-    private static final int PORT = 5001;
-    private ServerSocket serverSocket;
-    private Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
-    private Set<String> usedNames = ConcurrentHashMap.newKeySet();
-    private Consumer<String> logConsumer;
+    private static final int SEARCH_RESULTS = 20;
+    private static final int HISTORY_QUERY_BACKLOG = 64;
+    private final ServerConfig config;
+    private ServerSocketChannel serverChannel;
+    private NioChatEngine nioEngine;
+    private ThreadFactory connectionThreads;
+    private Set<Connection> clients = ConcurrentHashMap.newKeySet();
+    // Name -> connection, for uniqueness and direct messages alike
+    private final NameAllocator<Connection> clientsByName = new NameAllocator<>();
+    private final RoomIndex<Connection> rooms = new RoomIndex<>();
+    // Outbound lines are encoded once into these and shared by every recipient
+    private final BufferPool bufferPool = new BufferPool(2048, 4096);
+    private final WriteStats writeStats = new WriteStats();
+    private final ServerMetrics metrics;
+    // Set while the metrics are registered with the platform MBean server
+    private ObjectName metricsName;
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    // Global and monotonic, stamped on every broadcast and private message
+    private final AtomicLong sequence = new AtomicLong();
+    private final ServerLog serverLog;
+    private final Presence presence = new Presence();
+    private final RosterPublisher roster;
+    // Fills the gap for clients that reconnect within the grace period
+    private final RecentMessages recent;
+    // Resume key -> connection of a dropped binary client whose session is being held
+    private final Map<String, Connection> parked = new ConcurrentHashMap<>();
+    // Ends held sessions and ticks the metrics
+    private final ScheduledExecutorService timer;
+    private final SecureRandom resumeKeys = new SecureRandom();
+    // Null when history is turned off (chat.journalDir empty) or could not be opened
+    private MessageJournal journal;
+    // Word index over the journal, for /search
+    private HistoryIndex historyIndex;
+    // Runs /history and /search off the connection threads and event loops, one at a time
+    private ExecutorService historyQueries;
     private Consumer<Set<String>> clientListConsumer;
     private volatile boolean running = true;
+    // Set once the engine has bound its port
+    private volatile boolean listening;
+    // The port actually bound, which differs from the configured one for port 0
+    private volatile int boundPort;
 
     public ChatServer(Consumer<String> logConsumer, Consumer<Set<String>> clientListConsumer) {
-        this.logConsumer = logConsumer;
+        this(ServerConfig.fromProperties(System.getProperties()), logConsumer, clientListConsumer);
+    }
+
+    public ChatServer(ServerConfig config, Consumer<String> logConsumer, Consumer<Set<String>> clientListConsumer) {
+        this.config = config;
         this.clientListConsumer = clientListConsumer;
+        serverLog = new ServerLog(config.getLogLevel(), config.getLogSampleEvery(), config.getLogBufferSize());
+        serverLog.addSink(ChatServer::printLog);
+        if (logConsumer != null) {
+            serverLog.addSink(batch -> batch.forEach(event -> logConsumer.accept(event.message)));
+        }
+        roster = new RosterPublisher(presence, clients, bufferPool, config.getPresenceTickMillis());
+        recent = new RecentMessages(config.getResumeBufferSize());
+        metrics = new ServerMetrics(clients, writeStats);
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(metrics::tick, 1, 1, TimeUnit.SECONDS);
+        presence.addListener(roster);
+        if (clientListConsumer != null) {
+            // Once per presence tick with changes, like the clients' deltas, not once per login
+            roster.addFlushListener(() -> clientListConsumer.accept(presence.names()));
+        }
+    }
+
+    // Hears about each client that comes or goes, instead of being handed the whole list
+    void addPresenceListener(Presence.Listener listener) {
+        presence.addListener(listener);
+    }
+
+    // Receives log events in batches on the log thread, e.g. to show them in a GUI
+    void addLogSink(ServerLog.Sink sink) {
+        serverLog.addSink(sink);
+    }
+
+    // One console write per batch
+    private static void printLog(List<ServerLog.Event> batch) {
+        StringBuilder text = new StringBuilder();
+        for (ServerLog.Event event : batch) {
+            text.append(event.message).append(System.lineSeparator());
+        }
+        System.out.print(text);
+    }
+
+    public int getPort() {
+        return boundPort > 0 ? boundPort : config.getPort();
+    }
+
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // False when startServer() could not bind the port, or after stopServer()
+    public boolean isListening() {
+        return listening;
     }
 
     public void startServer() {
+        openJournal();
+        // The platform MBean server takes a few hundred ms to come up, so not while starting
+        timer.execute(this::registerMetrics);
+        if (config.getEngine() == ServerConfig.Engine.NIO) {
+            startNioEngine();
+            return;
+        }
+        ThreadFactory threads = connectionThreadFactory();
+        connectionThreads = threads;
         try {
-            serverSocket = new ServerSocket(PORT);
-            log("Chat server started on port " + PORT);
+            serverChannel = openServerChannel();
+            listening = true;
+            log("Chat server started on port " + getPort());
             updateClientList();
 
-            new Thread(() -> {
+            threads.newThread(() -> {
                 while (running) {
                     try {
-                        Socket clientSocket = serverSocket.accept();
-                        ClientHandler clientHandler = new ClientHandler(clientSocket);
+                        SocketChannel clientChannel = serverChannel.accept();
+                        configureSocket(clientChannel);
+                        metrics.recordAccept();
+                        ClientHandler clientHandler = new ClientHandler(clientChannel);
                         clients.add(clientHandler);
-                        clientHandler.start();
+                        threads.newThread(clientHandler).start();
                     } catch (IOException e) {
                         if (running) {
-                            log("Error accepting client: " + e.getMessage());
+                            log(ServerLog.Level.WARN, "Error accepting client: " + e.getMessage());
                         }
                     }
                 }
             }).start();
         } catch (IOException e) {
-            log("Error starting server: " + e.getMessage());
+            log(ServerLog.Level.ERROR, "Error starting server: " + e.getMessage());
+        }
+    }
+
+    // Virtual threads need Java 21; on older runtimes fall back to platform threads
+    private ThreadFactory connectionThreadFactory() {
+        if (config.getEngine() == ServerConfig.Engine.VIRTUAL) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "chat-client-", 0L);
+                log("Using virtual threads for client connections");
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                log(ServerLog.Level.WARN, "Virtual threads are not available on Java " + Runtime.version().feature()
+                        + ", using platform threads");
+            }
+        }
+        return Thread::new;
+    }
+
+    // Carries on the sequence and client ids of the previous run, so replayed history never
+    // repeats a seq or looks like it came from a new client with a recycled id
+    private void openJournal() {
+        if (config.getJournalDir().isEmpty()) {
+            return;
+        }
+        MessageJournal opened = new MessageJournal(config, this);
+        try {
+            opened.open();
+            sequence.set(Math.max(sequence.get(), opened.getLastSeq()));
+            connectionIds.set(Math.max(connectionIds.get(), opened.getMaxSenderId()));
+            journal = opened;
+            historyIndex = new HistoryIndex(opened, this);
+            historyIndex.start();
+            historyQueries = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(HISTORY_QUERY_BACKLOG), runnable -> {
+                        Thread thread = new Thread(runnable, "chat-history");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } catch (IOException e) {
+            log(ServerLog.Level.ERROR, "Error opening message journal, history is off: " + e.getMessage());
+        }
+    }
+
+    private void startNioEngine() {
+        try {
+            nioEngine = new NioChatEngine(this, config);
+            nioEngine.start();
+            listening = true;
+            log("Chat server started on port " + getPort() + " (NIO, " + config.getEventLoops()
+                    + " event loops)");
+            updateClientList();
+        } catch (IOException e) {
+            log(ServerLog.Level.ERROR, "Error starting server: " + e.getMessage());
         }
     }
 
     public void stopServer() throws IOException {
         running = false;
-        for (ClientHandler client : clients) {
-            client.sendMessage("SERVER_STOPPED");
+        listening = false;
+        for (Connection client : clients) {
+            client.send(ChatMessage.of(ChatMessage.Type.SERVER_STOPPED, "SERVER_STOPPED"));
             client.close();
         }
         clients.clear();
-        usedNames.clear();
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            serverSocket.close();
+        // Held sessions just end; nobody is left to tell
+        timer.shutdownNow();
+        unregisterMetrics();
+        parked.clear();
+        recent.clear();
+        roster.stop();
+        presence.clear();
+        clientsByName.clear();
+        rooms.clear();
+        if (serverChannel != null && serverChannel.isOpen()) {
+            serverChannel.close();
+        }
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+        if (journal != null) {
+            historyQueries.shutdownNow();
+            historyIndex.close();
+            journal.close();
         }
         log("Server stopped");
+        log("Write coalescing: " + writeStats.summary());
         updateClientList();
+        serverLog.close();
     }
 
-    private void log(String message) {
-        if (logConsumer != null) {
-            logConsumer.accept(message);
+    // Off with chat.jmx=false, which also keeps the JMX classes from loading at all. Synchronized
+    // with unregistering, so a server stopped meanwhile never leaves its metrics behind.
+    private synchronized void registerMetrics() {
+        if (!config.isJmx() || !running) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("chat606:type=ChatServer,port=" + getPort());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            log(ServerLog.Level.WARN, "Metrics are not published over JMX: " + e.getMessage());
+        }
+    }
+
+    private synchronized void unregisterMetrics() {
+        if (metricsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            log(ServerLog.Level.WARN, "Error unregistering metrics: " + e.getMessage());
+        }
+        metricsName = null;
+    }
+
+    ServerSocketChannel openServerChannel() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        if (config.getReceiveBufferSize() > 0) {
+            // Set before bind so the window scale is negotiated for accepted sockets
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
         }
-        System.out.println(message);
+        channel.bind(config.getBindAddress().isEmpty() ? new InetSocketAddress(config.getPort())
+                : new InetSocketAddress(config.getBindAddress(), config.getPort()), config.getBacklog());
+        boundPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        return channel;
+    }
+
+    void configureSocket(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.getSendBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferSize());
+        }
+        if (config.getReceiveBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+    }
+
+    void log(String message) {
+        serverLog.log(ServerLog.Level.INFO, message);
+    }
+
+    void log(ServerLog.Level level, String message) {
+        serverLog.log(level, message);
     }
 
     private void updateClientList() {
-        Set<String> clientNames = new HashSet<>();
-        for (ClientHandler client : clients) {
-            if (client.clientName != null) {
-                clientNames.add(client.clientName);
+        if (clientListConsumer != null) {
+            clientListConsumer.accept(presence.names());
+        }
+    }
+
+    // ---------------- Protocol, shared by every engine ----------------
+
+    abstract static class Connection {
+        private final BufferPool bufferPool;
+        // Taken over from the old connection when a client resumes its session
+        private volatile int id;
+        private volatile ChatProtocol.Framing framing = ChatProtocol.Framing.TEXT;
+        protected volatile String clientName;
+        // Set once the client has its USERS snapshot and should get PRESENCE deltas
+        volatile boolean receivesRoster;
+        // Only changed by the connection's own reader, like clientName
+        private volatile String room;
+        // Binary clients only: lets a reconnect take this session back
+        private volatile String resumeKey;
+        // Set for a resumed session: the last seq the client saw before the drop; -1 otherwise
+        private volatile long resumeAfterSeq = -1;
+        // Left on purpose (EXIT), so the session is not held for a reconnect
+        private volatile boolean exited;
+        // Accept time, for the handshake duration
+        private final long connectedNanos = System.nanoTime();
+
+        Connection(BufferPool bufferPool, int id) {
+            this.bufferPool = bufferPool;
+            this.id = id;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        String getClientName() {
+            return clientName;
+        }
+
+        String getRoom() {
+            return room;
+        }
+
+        ChatProtocol.Framing getFraming() {
+            return framing;
+        }
+
+        // A raw protocol line, for the handshake before the framing is settled. It is never
+        // dropped: a client that missed it could not make sense of anything after it.
+        void sendLine(String line) {
+            EncodedMessage encoded = EncodedMessage.encodeLine(line, bufferPool);
+            enqueue(encoded, true);
+            encoded.release();
+        }
+
+        // The rest of the handshake, once the framing is settled; never dropped either
+        void sendHandshake(ChatMessage message) {
+            OutboundMessage outbound = new OutboundMessage(message, bufferPool);
+            enqueue(outbound.encodedFor(framing), true);
+            outbound.release();
+        }
+
+        // A message meant for this client only
+        void send(ChatMessage message) {
+            OutboundMessage outbound = new OutboundMessage(message, bufferPool);
+            send(outbound);
+            outbound.release();
+        }
+
+        void send(OutboundMessage message) {
+            enqueue(message.encodedFor(framing), false);
+        }
+
+        // Queues shared bytes; implementations retain them and release them once written or dropped.
+        // The handshake bypasses the overflow policy (OutboundQueue.offerHandshake).
+        abstract void enqueue(EncodedMessage message, boolean handshake);
+
+        // Messages waiting to be written
+        abstract int queueDepth();
+
+        abstract void close() throws IOException;
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    int nextConnectionId() {
+        return connectionIds.incrementAndGet();
+    }
+
+    void addConnection(Connection client) {
+        clients.add(client);
+    }
+
+    // Handles the reply to SUBMIT_NAME: settles the framing, then picks the client's name
+    String completeHandshake(Connection client, String reply) {
+        ChatProtocol.Hello hello = ChatProtocol.parseHello(reply);
+        if (hello.wantsBinary) {
+            if (config.isBinaryFraming()) {
+                if (hello.resumeKey != null && resume(client, hello)) {
+                    return client.getClientName();
+                }
+                client.resumeKey = Long.toHexString(resumeKeys.nextLong());
+                // Everything queued after this line is framed
+                client.sendLine(ChatProtocol.PROTO_PREFIX + ChatProtocol.BINARY_V1 + " " + client.getId() + " "
+                        + client.resumeKey);
+                client.framing = ChatProtocol.Framing.BINARY;
+            } else {
+                client.sendLine(ChatProtocol.PROTO_PREFIX + ChatProtocol.TEXT);
             }
         }
-        if (clientListConsumer != null) {
-            clientListConsumer.accept(clientNames);
+        return assignName(client, hello.proposedName);
+    }
+
+    // Takes over a held session: same id, name, room and resume key. Anything else (unknown or
+    // expired key, different name) falls back to a normal login.
+    private boolean resume(Connection client, ChatProtocol.Hello hello) {
+        Connection old = parked.remove(hello.resumeKey);
+        if (old == null) {
+            return false;
+        }
+        if (!old.getClientName().equals(hello.proposedName)
+                || !clientsByName.transfer(old.getClientName(), old, client)) {
+            // Not the owner after all; the session ends as if the grace period had run out
+            announceDeparture(old);
+            return false;
         }
+        client.id = old.id;
+        client.clientName = old.clientName;
+        client.room = old.room;
+        client.resumeKey = old.resumeKey;
+        client.resumeAfterSeq = hello.lastSeq;
+        client.sendLine(ChatProtocol.PROTO_PREFIX + ChatProtocol.RESUMED + " " + client.getId() + " "
+                + client.resumeKey);
+        client.framing = ChatProtocol.Framing.BINARY;
+        return true;
     }
 
-    private class ClientHandler extends Thread {
-        private Socket socket;
-        private PrintWriter out;
-        private BufferedReader in;
-        private String clientName;
+    // Returns the unique name the client will use
+    private String assignName(Connection client, String proposedName) {
+        // Validate and ensure unique name
+        if (proposedName == null || proposedName.trim().isEmpty()) {
+            proposedName = "Anonymous";
+        }
+
+        String clientName = clientsByName.allocate(proposedName, client);
 
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        if (!clientName.equals(proposedName)) {
+            client.sendHandshake(ChatMessage.of(ChatMessage.Type.NAME_CHANGED, clientName));
         }
+        return clientName;
+    }
 
-        public void run() {
-            try {
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    void clientJoined(Connection client) {
+        if (client.resumeAfterSeq >= 0) {
+            resumeSession(client);
+        } else {
+            log("New client joined: " + client.getClientName());
+            enterRoom(client, config.getDefaultRoom());
+            broadcast(client.room, ChatMessage.Type.SYSTEM, null, client.getClientName() + " has joined the chat.");
+            presence.add(client.getClientName());
+            roster.subscribe(client);
+        }
+        metrics.recordHandshake(System.nanoTime() - client.connectedNanos);
+    }
 
-                out.println("SUBMIT_NAME");
-                String proposedName = in.readLine();
+    // Returns false once the client asked to leave
+    boolean handleMessage(Connection client, ChatMessage message) {
+        metrics.recordMessageIn();
+        if (message.getType() == ChatMessage.Type.EXIT) {
+            client.exited = true;
+            return false;
+        }
+        if (message.getType() != ChatMessage.Type.CHAT) {
+            return true;
+        }
+        // A binary client can put line breaks in a body; it goes out, and into the journal, as one line
+        String body = ChatProtocol.singleLine(message.getBody());
+        if (body.startsWith("/")) {
+            handleCommand(client, body);
+            return true;
+        }
+        if (serverLog.sampleMessageEvent()) {
+            log("Received: " + body);
+        }
+        broadcast(client.getRoom(), ChatMessage.Type.CHAT, client, body);
+        return true;
+    }
 
-                // Validate and ensure unique name
-                if (proposedName == null || proposedName.trim().isEmpty()) {
-                    proposedName = "Anonymous";
+    // Commands are chat lines starting with '/': /join <room>, /leave, /rooms, /msg <user> <text>,
+    // /history <seq>, /search <words> [from:<user>] [since:<seq>]
+    private void handleCommand(Connection client, String line) {
+        String[] parts = line.trim().split("\\s+", 2);
+        switch (parts[0]) {
+            case "/msg":
+                String[] args = parts.length > 1 ? parts[1].split("\\s+", 2) : new String[0];
+                if (args.length < 2) {
+                    notice(client, "Usage: /msg <user> <message>");
+                } else {
+                    sendPrivate(client, args[0], args[1]);
+                }
+                break;
+            case "/join":
+                String room = parts.length > 1 ? parts[1] : "";
+                if (room.startsWith("#")) {
+                    room = room.substring(1);
+                }
+                if (!RoomIndex.isValidName(room)) {
+                    notice(client, "Room names are 1-32 letters, digits, '-' or '_'");
+                } else if (room.equals(client.getRoom())) {
+                    notice(client, "You are already in #" + room);
+                } else {
+                    moveToRoom(client, room);
                 }
+                break;
+            case "/leave":
+                if (client.getRoom().equals(config.getDefaultRoom())) {
+                    notice(client, "You are in #" + client.getRoom() + ", there is no room to leave");
+                } else {
+                    moveToRoom(client, config.getDefaultRoom());
+                }
+                break;
+            case "/rooms":
+                StringBuilder list = new StringBuilder("Rooms:");
+                rooms.sizes().forEach((name, size) -> list.append(" #").append(name).append(" (").append(size)
+                        .append(')'));
+                notice(client, list.toString());
+                break;
+            case "/history":
+                if (parts.length < 2 || !parts[1].matches("\\d{1,18}")) {
+                    notice(client, "Usage: /history <seq>, to see this room's messages after that sequence number");
+                } else if (journal == null) {
+                    notice(client, "This server keeps no message history");
+                } else {
+                    long afterSeq = Long.parseLong(parts[1]);
+                    String current = client.getRoom();
+                    queryHistory(client, () -> history(client, current, afterSeq));
+                }
+                break;
+            case "/search":
+                search(client, parts.length > 1 ? parts[1] : "");
+                break;
+            default:
+                notice(client, "Unknown command " + parts[0] + ". Try /join <room>, /leave, /rooms, "
+                        + "/msg <user> <message>, /history <seq> or /search <words>");
+                break;
+        }
+    }
+
+    // One lookup, whatever the number of users online; the sender gets a copy for their own view
+    private void sendPrivate(Connection sender, String recipientName, String text) {
+        Connection recipient = clientsByName.get(recipientName);
+        if (recipient == null) {
+            notice(sender, "No user named " + recipientName + " is online");
+            return;
+        }
+        if (serverLog.sampleMessageEvent()) {
+            log("Private message from " + sender.getClientName() + " to " + recipientName);
+        }
+        // Like a broadcast, the seq is taken and the message sent under the rooms' locks, so both
+        // clients receive everything in seq order and resuming after the highest seq skips nothing.
+        // The sender's room only changes on its own thread; the recipient moving meanwhile means
+        // locking again.
+        String recipientRoom = recipient.getRoom();
+        while (!trySendPrivate(sender, recipientName, recipientRoom, text)) {
+            recipient = clientsByName.get(recipientName);
+            recipientRoom = recipient == null ? null : recipient.getRoom();
+        }
+    }
+
+    private boolean trySendPrivate(Connection sender, String recipientName, String recipientRoom, String text) {
+        boolean[] sent = new boolean[1];
+        rooms.withRooms(recipientRoom, sender.getRoom(), () -> {
+            // Looked up under the lock: a recipient resuming meanwhile gets it either live or in its gap
+            Connection recipient = clientsByName.get(recipientName);
+            if (recipient != null && !Objects.equals(recipient.getRoom(), recipientRoom)) {
+                return;
+            }
+            sent[0] = true;
+            ChatMessage message = new ChatMessage(ChatMessage.Type.PRIVATE, sender.getId(),
+                    sequence.incrementAndGet(), System.currentTimeMillis(),
+                    sender.getClientName() + " (to " + recipientName + "): " + text);
+            recent.addPrivate(sender.getClientName(), recipientName, message);
+            OutboundMessage outbound = new OutboundMessage(message, bufferPool);
+            if (recipient != null) {
+                recipient.send(outbound);
+            }
+            if (recipient != sender) {
+                sender.send(outbound);
+            }
+            outbound.release();
+        });
+        return sent[0];
+    }
+
+    // Queries read the journal, which can take a while; a full backlog turns the query away
+    private void queryHistory(Connection client, Runnable query) {
+        try {
+            historyQueries.execute(query);
+        } catch (RejectedExecutionException e) {
+            notice(client, "History is busy, try again shortly");
+        }
+    }
+
+    // One page of the room's messages after afterSeq. A page fits the client's outbound queue, and
+    // the scan stops once it is full.
+    private void history(Connection client, String room, long afterSeq) {
+        int pageSize = config.getHistoryPageSize();
+        long[] last = {afterSeq};
+        int count = journal.replaySince(afterSeq, room, pageSize, (r, message) -> {
+            client.send(message);
+            last[0] = message.getSeq();
+        });
+        if (count == pageSize) {
+            notice(client, "More with /history " + last[0]);
+        }
+    }
+
+    // Sends the newest matches in the client's room as the original messages, oldest first. The
+    // lookup and the journal reads run with the other history queries.
+    private void search(Connection client, String args) {
+        if (journal == null) {
+            notice(client, "This server keeps no message history");
+            return;
+        }
+        List<String> terms = new ArrayList<>();
+        long afterSeq = 0;
+        for (String term : args.trim().split("\\s+")) {
+            if (term.matches("since:\\d{1,18}")) {
+                afterSeq = Long.parseLong(term.substring(6));
+            } else if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        if (terms.isEmpty()) {
+            notice(client, "Usage: /search <words> [from:<user>] [since:<seq>]");
+            return;
+        }
+        String room = client.getRoom();
+        long since = afterSeq;
+        queryHistory(client, () -> {
+            long start = System.nanoTime();
+            long[] found = historyIndex.search(terms, room, since, SEARCH_RESULTS);
+            double millis = (System.nanoTime() - start) / 1e6;
+            notice(client, found.length == 0 ? "No messages in #" + room + " match " + String.join(" ", terms)
+                    : "Newest " + found.length + " matches in #" + room + String.format(" (%.1f ms):", millis));
+            for (long position : found) {
+                journal.readAt(position, (r, message) -> client.send(message));
+            }
+        });
+    }
 
-                clientName = proposedName;
-                int counter = 1;
-                while (usedNames.contains(clientName)) {
-                    clientName = proposedName + counter;
-                    counter++;
+    private void moveToRoom(Connection client, String room) {
+        String previous = client.getRoom();
+        rooms.leave(previous, client);
+        broadcast(previous, ChatMessage.Type.SYSTEM, null, client.getClientName() + " has left #" + previous + ".");
+        enterRoom(client, room);
+        broadcast(room, ChatMessage.Type.SYSTEM, null, client.getClientName() + " has joined #" + room + ".");
+        log(client.getClientName() + " moved from #" + previous + " to #" + room);
+    }
+
+    // The room's recent history is sent and the client added under the room's lock, so no live
+    // message reaches the client ahead of, or as well as, the history. An empty room has no lock
+    // to take, and nobody to talk in it either.
+    private void enterRoom(Connection client, String room) {
+        client.room = room;
+        if (journal == null || config.getReplayOnJoin() == 0) {
+            rooms.join(room, client);
+            return;
+        }
+        boolean[] joined = new boolean[1];
+        rooms.withMembers(room, members -> {
+            replayHistory(client, room);
+            rooms.join(room, client);
+            joined[0] = true;
+        });
+        if (!joined[0]) {
+            replayHistory(client, room);
+            rooms.join(room, client);
+        }
+    }
+
+    // The newest messages may not have reached the journal yet, so they come from the resume
+    // buffer and only older ones from the journal: nothing waits for the journal's writer, under
+    // the room's lock or on an event loop.
+    private void replayHistory(Connection client, String room) {
+        int count = config.getReplayOnJoin();
+        List<ChatMessage> newest = recent.lastInRoom(room, ChatMessage.Type.CHAT, count);
+        if (newest.size() < count) {
+            long before = newest.isEmpty() ? Long.MAX_VALUE : newest.get(0).getSeq();
+            List<ChatMessage> older = new ArrayList<>();
+            journal.replayRecent(room, count, (r, message) -> {
+                if (message.getSeq() < before) {
+                    older.add(message);
                 }
-                usedNames.add(clientName);
+            });
+            older.subList(Math.max(0, older.size() - (count - newest.size())), older.size()).forEach(client::send);
+        }
+        newest.forEach(client::send);
+    }
 
-                if (!clientName.equals(proposedName)) {
-                    out.println("NAME_CHANGED:" + clientName);
+    // A reply to this client alone
+    private void notice(Connection client, String text) {
+        client.send(ChatMessage.of(ChatMessage.Type.SYSTEM, text));
+    }
+
+    void clientLeft(Connection client) {
+        String clientName = client.getClientName();
+        if (client.getRoom() != null) {
+            rooms.leave(client.getRoom(), client);
+        }
+        clients.remove(client);
+        try {
+            client.close();
+        } catch (IOException e) {
+            log(ServerLog.Level.WARN, "Error closing client connection: " + e.getMessage());
+        }
+        if (running && client.resumeKey != null && !client.exited && client.getRoom() != null
+                && config.getResumeGraceMillis() > 0) {
+            // Dropped, not gone: keep the name, room and presence for a while, unannounced
+            parked.put(client.resumeKey, client);
+            timer.schedule(() -> {
+                if (parked.remove(client.resumeKey, client)) {
+                    announceDeparture(client);
                 }
+            }, config.getResumeGraceMillis(), TimeUnit.MILLISECONDS);
+            log("Client " + clientName + " dropped, holding the session for " + config.getResumeGraceMillis()
+                    + " ms");
+            return;
+        }
+        announceDeparture(client);
+    }
+
+    private void announceDeparture(Connection client) {
+        String clientName = client.getClientName();
+        if (client.getRoom() != null) {
+            broadcast(client.getRoom(), ChatMessage.Type.SYSTEM, null, clientName + " has left the chat.");
+        }
+        if (clientName != null) {
+            // Announce the departure before the name can be handed to someone else
+            presence.remove(clientName);
+            clientsByName.release(clientName, client);
+        }
+        log("Client " + clientName + " left");
+    }
+
+    // A reconnected client gets what its room and its private messages had since lastSeq, then
+    // rejoins the room, all under the room's lock like enterRoom(). Nobody else sees the blip.
+    // When the gap has already fallen out of the buffer, the room's recent history will do.
+    private void resumeSession(Connection client) {
+        String room = client.getRoom();
+        long afterSeq = client.resumeAfterSeq;
+        log("Client " + client.getClientName() + " resumed after seq " + afterSeq);
+        boolean[] joined = new boolean[1];
+        rooms.withMembers(room, members -> {
+            fillGap(client, afterSeq);
+            rooms.join(room, client);
+            joined[0] = true;
+        });
+        if (!joined[0]) {
+            fillGap(client, afterSeq);
+            rooms.join(room, client);
+        }
+        roster.subscribe(client);
+    }
 
-                log("New client joined: " + clientName);
-                broadcast(clientName + " has joined the chat.", true);
-                updateClientList();
+    private void fillGap(Connection client, long afterSeq) {
+        List<RecentMessages.Entry> missed = recent.since(afterSeq, client.getRoom(), client.getClientName());
+        if (missed == null) {
+            notice(client, "Some messages from while you were disconnected are no longer available");
+            if (journal != null) {
+                journal.replayRecent(client.getRoom(), config.getReplayOnJoin(), (r, message) -> {
+                    if (message.getSeq() > afterSeq) {
+                        client.send(message);
+                    }
+                });
+            }
+            return;
+        }
+        for (RecentMessages.Entry entry : missed) {
+            client.send(entry.message);
+        }
+    }
 
-                String message;
-                while ((message = in.readLine()) != null) {
-                    if (message.equals("EXIT")) {
+    // Messages go to everyone in the room (including the sender). The sequence number is taken
+    // under the room's lock, so every member receives the room's messages in sequence order. The
+    // sender is null for the server's own messages.
+    private void broadcast(String room, ChatMessage.Type type, Connection sender, String body) {
+        rooms.withMembers(room, members -> {
+            long start = System.nanoTime();
+            ChatMessage message = new ChatMessage(type, sender == null ? 0 : sender.getId(), sequence.incrementAndGet(),
+                    System.currentTimeMillis(), body);
+            OutboundMessage outbound = new OutboundMessage(message, bufferPool);
+            for (Connection client : members) {
+                client.send(outbound);
+            }
+            outbound.release();
+            metrics.recordFanOut(System.nanoTime() - start);
+            recent.addRoom(room, message);
+            if (journal != null && type == ChatMessage.Type.CHAT) {
+                // Only queued here; the journal thread does the writing
+                journal.append(room, sender == null ? "" : sender.getClientName(), message);
+            }
+        });
+    }
+
+    private class ClientHandler extends Connection implements Runnable {
+        private SocketChannel channel;
+        private ProtocolReader in;
+        private final OutboundQueue<EncodedMessage> outbound = new OutboundQueue<>(
+                config.getOutboundQueueCapacity(), config.getOverflowPolicy(), EncodedMessage::release);
+
+        public ClientHandler(SocketChannel channel) {
+            super(bufferPool, nextConnectionId());
+            this.channel = channel;
+        }
+
+        public void run() {
+            try {
+                in = new ProtocolReader(metrics.countBytesIn(channel.socket().getInputStream()),
+                        config.getMaxLineLength());
+                connectionThreads.newThread(this::writeLoop).start();
+
+                sendLine("SUBMIT_NAME");
+                clientName = completeHandshake(this, in.readLine());
+                clientJoined(this);
+
+                ChatMessage message;
+                while ((message = readMessage()) != null) {
+                    if (!handleMessage(this, message)) {
                         break;
                     }
-                    SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss dd/MM/yyyy");
-                    String timestamp = sdf.format(new Date());
-                    log("Received: " + message);
-                    broadcast(timestamp + " - " + message, false);
                 }
-            } catch (IOException e) {
-                log("Error with client " + clientName + ": " + e.getMessage());
+            } catch (IOException | IllegalArgumentException e) {
+                log(ServerLog.Level.WARN, "Error with client " + clientName + ": " + e.getMessage());
             } finally {
-                try {
-                    if (clientName != null) {
-                        broadcast(clientName + " has left the chat.", true);
-                        usedNames.remove(clientName);
-                    }
-                    clients.remove(this);
-                    close();
-                    log("Client " + clientName + " left");
-                    updateClientList();
-                } catch (IOException e) {
-                    log("Error closing client connection: " + e.getMessage());
-                }
+                clientLeft(this);
             }
         }
 
-        private void broadcast(String message, boolean isSystemMessage) {
-            for (ClientHandler client : clients) {
+        private ChatMessage readMessage() throws IOException {
+            if (getFraming() == ChatProtocol.Framing.BINARY) {
+                return in.readFrame();
+            }
+            String line = in.readLine();
+            return line == null ? null : ChatProtocol.fromClientLine(line);
+        }
 
-                if (isSystemMessage) {
-                    // System messages go to everyone
-                    client.out.println(message);
-                } else {
-                    // Regular messages go to everyone (including sender)
-                    client.out.println(message);
+        // The only thread that writes to this socket; a stalled client only ever blocks here.
+        // Everything queued since the last pass goes out in one gathering write.
+        private void writeLoop() {
+            int limit = config.getWriteBatchLimit();
+            List<EncodedMessage> batch = new ArrayList<>(limit);
+            ByteBuffer[] views = new ByteBuffer[limit];
+            try {
+                while (outbound.drainTo(batch, limit) >= 0) {
+                    int count = batch.size();
+                    for (int i = 0; i < count; i++) {
+                        views[i] = batch.get(i).view();
+                    }
+                    int first = 0;
+                    while (first < count) {
+                        long written = channel.write(views, first, count - first);
+                        int completed = first;
+                        while (first < count && !views[first].hasRemaining()) {
+                            first++;
+                        }
+                        writeStats.record(first - completed, written);
+                    }
+                    Arrays.fill(views, 0, count, null);
+                    batch.forEach(EncodedMessage::release);
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closing the socket below wakes the reader, which cleans up
+            } finally {
+                batch.forEach(EncodedMessage::release);
+                outbound.close();
+                EncodedMessage leftover;
+                while ((leftover = outbound.poll()) != null) {
+                    leftover.release();
                 }
             }
+            closeSocket();
+        }
+
+        @Override
+        void enqueue(EncodedMessage message, boolean handshake) {
+            message.retain();
+            if (handshake) {
+                outbound.offerHandshake(message);
+            } else if (!outbound.offer(message)) {
+                log(ServerLog.Level.WARN, "Client " + clientName + " is not reading, disconnecting ("
+                        + outbound.getDropped() + " messages dropped)");
+                outbound.close();
+                closeSocket();
+            }
+        }
+
+        @Override
+        int queueDepth() {
+            return outbound.size();
         }
 
-        private void sendMessage(String message) {
-            out.println(message);
+        // Lets the writer deliver what is already queued, then it closes the socket
+        @Override
+        public void close() {
+            outbound.close();
         }
 
-        private void close() throws IOException {
-            if (in != null)
-                in.close();
-            if (out != null)
-                out.close();
-            if (socket != null && !socket.isClosed())
-                socket.close();
+        private void closeSocket() {
+            try {
+                if (channel.isOpen())
+                    channel.close();
+            } catch (IOException e) {
+                log(ServerLog.Level.WARN, "Error closing client connection: " + e.getMessage());
+            }
         }
     }
 }
\ No newline at end of file
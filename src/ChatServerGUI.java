@@ -1,25 +1,68 @@
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Set;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ChatServerGUI extends JFrame {
     private JTextArea logArea;
     private JButton stopButton;
     private JButton startButton;
     private JList<String> clientList;
-    private DefaultListModel<String> clientListModel;
+    // Value labels of the stats panel, refreshed by statsTimer
+    private JLabel connectionsStat;
+    private JLabel acceptsStat;
+    private JLabel messagesInStat;
+    private JLabel messagesOutStat;
+    private JLabel bytesInStat;
+    private JLabel bytesOutStat;
+    private JLabel fanOutStat;
+    private JLabel handshakeStat;
+    private JLabel queueStat;
+    private JLabel batchStat;
+    private final RosterListModel clientListModel = new RosterListModel("🟢 ", "(No users connected)");
     private ChatServer server;
+    private final ServerConfig config = ServerConfig.fromProperties(System.getProperties());
+    // Log text waiting for the next frame; guarded by itself
+    private final StringBuilder pendingLog = new StringBuilder();
+    private final RollingLogFile logFile;
+    private final ExecutorService logFileWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-log-file");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The log view and client list repaint at most this often, however fast changes arrive
+    private static final int FRAME_MILLIS = 50;
+    // The metrics' rates only change once a second
+    private static final int STATS_MILLIS = 1000;
+    private static final Font STAT_TITLE_FONT = new Font("Segoe UI Emoji", Font.PLAIN, 11);
+    private static final Font STAT_VALUE_FONT = new Font("Segoe UI Emoji", Font.BOLD, 14);
     private static final Font LOG_FONT = new Font("Segoe UI Emoji", Font.PLAIN, 14);
+    private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
 
     public ChatServerGUI() {
         super("606 ChatApp - Server");
-        setSize(700, 450);
+        setSize(760, 540);
         setMinimumSize(new Dimension(500, 350));
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
+        logFile = config.getLogFile().isEmpty() ? null
+                : new RollingLogFile(config.getLogFile(), config.getLogFileMaxBytes(), config.getLogFiles());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                archiveLogView();
+            }
+        });
 
         JPanel mainPanel = new JPanel() {
             @Override
@@ -52,12 +95,13 @@ public class ChatServerGUI extends JFrame {
         scrollPane.setBorder(BorderFactory.createLineBorder(new Color(100, 100, 150), 2));
         scrollPane.getViewport().setBackground(new Color(30, 30, 50));
 
-        clientListModel = new DefaultListModel<>();
         clientList = new JList<>(clientListModel);
         clientList.setFont(LOG_FONT);
         clientList.setForeground(new Color(144, 238, 144));
         clientList.setBackground(new Color(30, 30, 50));
         clientList.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        // Fixed cell size, so list updates never measure every row
+        clientList.setPrototypeCellValue("🟢 WWWWWWWWWWWWWWW");
 
         JScrollPane clientScrollPane = new JScrollPane(clientList);
         clientScrollPane.setPreferredSize(new Dimension(180, 0));
@@ -87,13 +131,86 @@ public class ChatServerGUI extends JFrame {
         buttonPanel.add(startButton);
         buttonPanel.add(stopButton);
 
+        mainPanel.add(createStatsPanel(), BorderLayout.NORTH);
         mainPanel.add(scrollPane, BorderLayout.CENTER);
         mainPanel.add(clientPanel, BorderLayout.EAST);
         mainPanel.add(buttonPanel, BorderLayout.SOUTH);
 
-        server = new ChatServer(this::appendLog, this::updateClientList);
-        server.startServer();
-        appendLog("✅ Chat server started on port 5001");
+        new Timer(FRAME_MILLIS, e -> {
+            flushLog();
+            clientListModel.flush();
+        }).start();
+        new Timer(STATS_MILLIS, e -> refreshStats()).start();
+        startServer();
+    }
+
+    private JPanel createStatsPanel() {
+        JPanel statsPanel = new JPanel(new GridLayout(2, 5, 10, 4));
+        statsPanel.setBackground(new Color(30, 30, 50));
+        statsPanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(new Color(100, 100, 150), 2),
+                BorderFactory.createEmptyBorder(6, 10, 6, 10)));
+        connectionsStat = addStat(statsPanel, "Connections");
+        acceptsStat = addStat(statsPanel, "Accepts/s");
+        messagesInStat = addStat(statsPanel, "Messages in/s");
+        messagesOutStat = addStat(statsPanel, "Messages out/s");
+        batchStat = addStat(statsPanel, "Messages per write");
+        bytesInStat = addStat(statsPanel, "In");
+        bytesOutStat = addStat(statsPanel, "Out");
+        fanOutStat = addStat(statsPanel, "Fan-out p50 / p99");
+        handshakeStat = addStat(statsPanel, "Handshake p99");
+        queueStat = addStat(statsPanel, "Deepest queue");
+        return statsPanel;
+    }
+
+    // A title over a value; returns the value label
+    private static JLabel addStat(JPanel panel, String title) {
+        JLabel titleLabel = new JLabel(title);
+        titleLabel.setFont(STAT_TITLE_FONT);
+        titleLabel.setForeground(new Color(180, 180, 210));
+        JLabel valueLabel = new JLabel("-");
+        valueLabel.setFont(STAT_VALUE_FONT);
+        valueLabel.setForeground(new Color(144, 238, 144));
+        JPanel cell = new JPanel(new BorderLayout());
+        cell.setOpaque(false);
+        cell.add(titleLabel, BorderLayout.NORTH);
+        cell.add(valueLabel, BorderLayout.CENTER);
+        panel.add(cell);
+        return valueLabel;
+    }
+
+    // Reads what the metrics already keep; the queue depths are the only part that walks the clients
+    private void refreshStats() {
+        if (server == null || !server.isRunning()) {
+            for (JLabel stat : new JLabel[] { connectionsStat, acceptsStat, messagesInStat, messagesOutStat,
+                    batchStat, bytesInStat, bytesOutStat, fanOutStat, handshakeStat, queueStat }) {
+                stat.setText("-");
+            }
+            return;
+        }
+        ServerMetrics metrics = server.getMetrics();
+        connectionsStat.setText(String.valueOf(metrics.getConnections()));
+        acceptsStat.setText(String.format("%.0f", metrics.getAcceptsPerSecond()));
+        messagesInStat.setText(String.format("%.0f", metrics.getMessagesInPerSecond()));
+        messagesOutStat.setText(String.format("%.0f", metrics.getMessagesOutPerSecond()));
+        batchStat.setText(String.format("%.2f", metrics.getMessagesPerWrite()));
+        bytesInStat.setText(formatRate(metrics.getBytesInPerSecond()));
+        bytesOutStat.setText(formatRate(metrics.getBytesOutPerSecond()));
+        fanOutStat.setText(formatMicros(metrics.getFanOutMicrosP50()) + " / "
+                + formatMicros(metrics.getFanOutMicrosP99()));
+        handshakeStat.setText(formatMicros(metrics.getHandshakeMicrosP99()));
+        queueStat.setText(String.valueOf(metrics.getMaxQueueDepth()));
+    }
+
+    private static String formatRate(double bytesPerSecond) {
+        if (bytesPerSecond >= 1024 * 1024) {
+            return String.format("%.1f MB/s", bytesPerSecond / (1024 * 1024));
+        }
+        return String.format("%.1f KB/s", bytesPerSecond / 1024);
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 1000 ? micros + " µs" : String.format("%.1f ms", micros / 1000.0);
     }
 
     private JButton createGradientButton(String text) {
@@ -126,28 +243,98 @@ public class ChatServerGUI extends JFrame {
     }
 
     public void appendLog(String message) {
-        SwingUtilities.invokeLater(() -> {
-            String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-            logArea.append("[" + timestamp + "] " + message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        appendText("[" + LOG_TIME.format(Instant.now()) + "] " + message + "\n");
     }
 
-    public void updateClientList(Set<String> clients) {
-        SwingUtilities.invokeLater(() -> {
-            clientListModel.clear();
-            if (clients.isEmpty()) {
-                clientListModel.addElement("(No users connected)");
-            } else {
-                clients.forEach(client -> clientListModel.addElement("🟢 " + client));
+    // Called on the server's log thread; the whole batch becomes one append on the EDT
+    private void appendLogBatch(List<ServerLog.Event> batch) {
+        StringBuilder text = new StringBuilder();
+        for (ServerLog.Event event : batch) {
+            text.append('[').append(LOG_TIME.format(Instant.ofEpochMilli(event.timestamp))).append("] ");
+            if (event.level != ServerLog.Level.INFO) {
+                text.append(event.level).append(' ');
             }
-        });
+            text.append(event.message).append('\n');
+        }
+        appendText(text.toString());
+    }
+
+    private void appendText(String text) {
+        synchronized (pendingLog) {
+            pendingLog.append(text);
+        }
+    }
+
+    // Runs once per frame on the EDT: one append, one trim and one scroll for everything since the last frame
+    private void flushLog() {
+        String text;
+        synchronized (pendingLog) {
+            if (pendingLog.length() == 0) {
+                return;
+            }
+            text = pendingLog.toString();
+            pendingLog.setLength(0);
+        }
+        logArea.append(text);
+        trimLog();
+        logArea.setCaretPosition(logArea.getDocument().getLength());
+    }
+
+    // Keeps the view at most 10% over its line limit, moving the oldest lines to the log file
+    private void trimLog() {
+        int maxLines = config.getLogViewLines();
+        int lines = logArea.getLineCount();
+        if (lines <= maxLines + maxLines / 10) {
+            return;
+        }
+        try {
+            int end = logArea.getLineEndOffset(lines - maxLines - 1);
+            archive(logArea.getText(0, end));
+            logArea.getDocument().remove(0, end);
+        } catch (BadLocationException e) {
+            // Offsets come from the document itself
+        }
+    }
+
+    private void archive(String text) {
+        if (logFile != null) {
+            logFileWriter.execute(() -> logFile.append(text));
+        }
+    }
+
+    // On exit the lines still on screen go to the log file too
+    private void archiveLogView() {
+        flushLog();
+        archive(logArea.getText());
+        logFileWriter.shutdown();
+        try {
+            logFileWriter.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (logFile != null) {
+            logFile.close();
+        }
     }
 
     private void startServer() {
-        server = new ChatServer(this::appendLog, this::updateClientList);
+        server = new ChatServer(config, null, null);
+        server.addPresenceListener(clientListModel::presenceChanged);
+        server.addLogSink(this::appendLogBatch);
         server.startServer();
-        appendLog("✅ Chat server started on port 5001");
+        if (!server.isListening()) {
+            // The reason is already in the log; what did start is shut down again
+            try {
+                server.stopServer();
+            } catch (IOException e) {
+                appendLog("⚠️ Error stopping server: " + e.getMessage());
+            }
+            appendLog("⚠️ Chat server could not start on port " + config.getPort());
+            stopButton.setEnabled(false);
+            startButton.setEnabled(true);
+            return;
+        }
+        appendLog("✅ Chat server started on port " + server.getPort());
         startButton.setEnabled(false);
         stopButton.setEnabled(true);
     }
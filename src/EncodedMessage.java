@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A protocol line or frame encoded once and shared by every recipient. Each queue holding it takes a
+// reference; the buffer goes back to the pool when the last write (or drop) releases it.
+class EncodedMessage {
+    private final ByteBuffer data;
+    private final BufferPool pool;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private EncodedMessage(ByteBuffer data, BufferPool pool) {
+        this.data = data;
+        this.pool = pool;
+    }
+
+    // Returns a message holding one reference, owned by the caller
+    static EncodedMessage encodeLine(String line, BufferPool pool) {
+        int length = utf8Length(line) + 1;
+        ByteBuffer buffer = length <= pool.getChunkSize() ? pool.acquire() : ByteBuffer.allocate(length);
+        putUtf8(line, buffer);
+        buffer.put((byte) '\n');
+        buffer.flip();
+        return new EncodedMessage(buffer, pool);
+    }
+
+    // Binary framing, see ChatProtocol
+    static EncodedMessage encodeFrame(ChatMessage message, BufferPool pool) {
+        int bodyLength = utf8Length(message.getBody());
+        int length = 4 + ChatProtocol.FRAME_HEADER_BYTES + bodyLength;
+        ByteBuffer buffer = length <= pool.getChunkSize() ? pool.acquire() : ByteBuffer.allocate(length);
+        buffer.putInt(ChatProtocol.FRAME_HEADER_BYTES + bodyLength);
+        buffer.put(message.getType().getCode());
+        buffer.putInt(message.getSenderId());
+        buffer.putLong(message.getSeq());
+        buffer.putLong(message.getTimestamp());
+        putUtf8(message.getBody(), buffer);
+        buffer.flip();
+        return new EncodedMessage(buffer, pool);
+    }
+
+    // Independent read-only position/limit over the shared bytes, one per write
+    ByteBuffer view() {
+        return data.asReadOnlyBuffer();
+    }
+
+    int length() {
+        return data.limit();
+    }
+
+    void retain() {
+        refCount.incrementAndGet();
+    }
+
+    void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            pool.release(data);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("EncodedMessage released too many times");
+        }
+    }
+
+    // Same byte count String.getBytes(UTF_8) would produce, without allocating
+    static int utf8Length(CharSequence s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Unpaired surrogates become '?', matching String.getBytes(UTF_8)
+    static void putUtf8(CharSequence s, ByteBuffer out) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs the server without a window. Nothing here loads AWT or Swing, which keeps startup fast
+// and the footprint small on machines without a display. Settings come from, lowest precedence
+// first: the defaults, a properties file (config=<file>), -Dchat.* system properties and
+// key=value arguments, where the key is a chat.* name with or without the prefix. An unknown
+// key from any of them is an error, so a typo never silently leaves a default in place:
+//
+//   java -cp app/target/chat606-1.0-SNAPSHOT.jar HeadlessServer port=5001 engine=nio config=server.properties
+//
+// "help" lists every key with its default. train=true starts the server, takes one loopback
+// client through the handshake and a broadcast, and exits: run under -XX:ArchiveClassesAtExit,
+// that leaves a class-data archive covering the serving path (see readme). The training server
+// listens on a free ephemeral port and keeps no journal or log file, so it never touches the
+// state of a real server.
+public class HeadlessServer {
+    private static final String PREFIX = "chat.";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Properties known = new ServerConfig().toProperties();
+        Properties arguments = new Properties();
+        String configFile = System.getProperty(PREFIX + "config");
+        boolean train = false;
+        for (String arg : args) {
+            if (arg.equals("help") || arg.equals("--help") || arg.equals("-h")) {
+                printUsage(known);
+                return;
+            }
+            int equals = arg.indexOf('=');
+            String key = equals < 0 ? arg : arg.substring(0, equals).replaceFirst("^--", "");
+            String value = equals < 0 ? "" : arg.substring(equals + 1).trim();
+            String name = key.startsWith(PREFIX) ? key : PREFIX + key;
+            if (key.equals("config")) {
+                configFile = value;
+            } else if (key.equals("train")) {
+                train = Boolean.parseBoolean(value);
+            } else if (equals < 0 || !known.containsKey(name)) {
+                System.err.println("Unknown argument " + arg + "; try HeadlessServer help");
+                System.exit(2);
+            } else {
+                arguments.setProperty(name, value);
+            }
+        }
+
+        Properties settings = new Properties();
+        if (configFile != null && !configFile.isEmpty()) {
+            try (Reader in = Files.newBufferedReader(Paths.get(configFile))) {
+                settings.load(in);
+            } catch (IOException e) {
+                System.err.println("Cannot read " + configFile + ": " + e);
+                System.exit(2);
+            }
+            for (String name : settings.stringPropertyNames()) {
+                if (!known.containsKey(name)) {
+                    System.err.println("Unknown setting " + name + " in " + configFile + "; try HeadlessServer help");
+                    System.exit(2);
+                }
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (!name.startsWith(PREFIX) || name.equals(PREFIX + "config")) {
+                continue;
+            }
+            if (!known.containsKey(name)) {
+                System.err.println("Unknown system property -D" + name + "; try HeadlessServer help");
+                System.exit(2);
+            }
+            settings.setProperty(name, System.getProperty(name));
+        }
+        settings.putAll(arguments);
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromProperties(settings);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid setting: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        if (train) {
+            config.setPort(0);
+            config.setJournalDir("");
+            config.setLogFile("");
+        }
+        ChatServer server = new ChatServer(config, null, null);
+        RollingLogFile logFile = config.getLogFile().isEmpty() ? null
+                : new RollingLogFile(config.getLogFile(), config.getLogFileMaxBytes(), config.getLogFiles());
+        if (logFile != null) {
+            server.addLogSink(batch -> logFile.append(format(batch)));
+        }
+        server.startServer();
+        if (!server.isListening()) {
+            server.stopServer();
+            System.exit(1);
+        }
+        Instant started = ProcessHandle.current().info().startInstant().orElse(null);
+        if (started != null) {
+            server.log("Serving " + Duration.between(started, Instant.now()).toMillis() + " ms after JVM start");
+        }
+        if (train) {
+            System.exit(runTrainingSession(server, config) ? 0 : 1);
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stopServer();
+            } catch (IOException e) {
+                System.err.println("Error stopping server: " + e.getMessage());
+            }
+            if (logFile != null) {
+                logFile.close();
+            }
+            stopped.countDown();
+        }, "chat-shutdown"));
+        // The virtual-thread engine has no non-daemon thread to keep the JVM up
+        stopped.await();
+    }
+
+    // One client logs in, chats and leaves, so the classes on that path get loaded
+    private static boolean runTrainingSession(ChatServer server, ServerConfig config) throws Exception {
+        BlockingQueue<ChatMessage> received = new LinkedBlockingQueue<>();
+        String host = config.getBindAddress().isEmpty() ? "127.0.0.1" : config.getBindAddress();
+        boolean echoed = false;
+        try {
+            ChatClient client = new ChatClient(host, server.getPort(), ChatClient.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+            client.join("training", ChatClient.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+            client.setMessageListener(received::add);
+            client.startClient();
+            client.sendMessage("training: hello");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!echoed && System.nanoTime() < deadline) {
+                ChatMessage message = received.poll(100, TimeUnit.MILLISECONDS);
+                echoed = message != null && message.getType() == ChatMessage.Type.CHAT;
+            }
+            client.sendExit();
+            client.close();
+        } catch (IOException e) {
+            System.err.println("Training session failed: " + e.getMessage());
+        }
+        server.stopServer();
+        return echoed;
+    }
+
+    private static String format(List<ServerLog.Event> batch) {
+        StringBuilder text = new StringBuilder();
+        for (ServerLog.Event event : batch) {
+            text.append(Instant.ofEpochMilli(event.timestamp)).append(' ').append(event.level).append(' ')
+                    .append(event.message).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    private static void printUsage(Properties defaults) {
+        System.out.println("Usage: HeadlessServer [config=<file>] [train=true] [key=value ...]");
+        System.out.println("Keys, with their defaults (-Dchat.<key> and chat.<key> in the file work too):");
+        for (String name : new TreeSet<>(defaults.stringPropertyNames())) {
+            System.out.println("  " + name.substring(PREFIX.length()) + "=" + defaults.getProperty(name));
+        }
+    }
+}
\ No newline at end of file
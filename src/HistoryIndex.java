@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted index over the journaled messages: word -> the messages containing it. Its own thread
+// follows the journal from the oldest record kept, so the index is rebuilt at startup by the same
+// loop that then picks up each new record; neither broadcasting threads nor the journal writer
+// ever wait for it, and a search just misses whatever it has not reached yet. Messages are
+// numbered in the order they are added; each word's posting list is those numbers as
+// varint-encoded gaps in a growing byte array, a byte or two per posting instead of a boxed
+// object. The message's journal position, seq and room are kept in parallel primitive arrays, so
+// a query only reads the journal for the handful of results it returns. When retention deletes
+// a segment, the messages that were in it are dropped from the front and the rest renumbered.
+//
+// Words are lowercased runs of letters and digits. The sender is also indexed as "from:name",
+// by the name the server knew them by (kept in the journal record), not by the "name: " prefix
+// the client puts on each line, which anyone can write.
+class HistoryIndex {
+    private static final int MAX_TERM_LENGTH = 40;
+    private static final int BATCH = 1024;
+    private static final int BLOCK = 128;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // One word's postings: ascending message numbers, stored as varint gaps. Every BLOCK-th
+    // posting starts a block whose first message and byte offset are kept, so a query can start
+    // decoding at any block instead of at the front.
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int size;
+        int count;
+        int last = -1;
+        int[] blockDocs = new int[1];
+        int[] blockOffsets = new int[1];
+
+        void add(int doc) {
+            if (doc == last) {
+                return; // word repeated within the message
+            }
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            if (count % BLOCK == 0) {
+                int block = count / BLOCK;
+                if (block == blockDocs.length) {
+                    blockDocs = Arrays.copyOf(blockDocs, block * 2);
+                    blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+                }
+                blockDocs[block] = doc;
+                blockOffsets[block] = size;
+            }
+            int gap = doc - last;
+            last = doc;
+            count++;
+            while ((gap & ~0x7F) != 0) {
+                data[size++] = (byte) (gap & 0x7F | 0x80);
+                gap >>>= 7;
+            }
+            data[size++] = (byte) gap;
+        }
+
+        // The postings from doc `from` on, renumbered to start at 0
+        Postings from(int from) {
+            Postings kept = new Postings();
+            for (int doc : decode()) {
+                if (doc >= from) {
+                    kept.add(doc - from);
+                }
+            }
+            return kept;
+        }
+
+        int[] decode() {
+            int[] docs = new int[count];
+            int doc = -1;
+            for (int i = 0, n = 0; n < count; n++) {
+                int gap = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = data[i++];
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                doc += gap;
+                docs[n] = doc;
+            }
+            return docs;
+        }
+
+        int blocks() {
+            return (count + BLOCK - 1) / BLOCK;
+        }
+
+        // The block that would hold doc, or -1 if doc comes before the first posting
+        int blockOf(int doc) {
+            int found = Arrays.binarySearch(blockDocs, 0, blocks(), doc);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        // Decodes one block into docs and returns how many postings it holds
+        int decodeBlock(int block, int[] docs) {
+            int n = Math.min(BLOCK, count - block * BLOCK);
+            int doc = blockDocs[block];
+            for (int i = blockOffsets[block], k = 0; k < n; k++) {
+                int gap = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = data[i++];
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                // The first gap leads from the previous block; its doc is kept instead
+                if (k > 0) {
+                    doc += gap;
+                }
+                docs[k] = doc;
+            }
+            return n;
+        }
+    }
+
+    // One query's view of a postings list: the last block it decoded, which the next lookup
+    // usually lands in again, as lookups go from the newest message back
+    private static final class Cursor {
+        final Postings postings;
+        final int[] docs = new int[BLOCK];
+        int block = -1;
+        int n;
+
+        Cursor(Postings postings) {
+            this.postings = postings;
+        }
+
+        boolean contains(int doc) {
+            int wanted = postings.blockOf(doc);
+            if (wanted < 0) {
+                return false;
+            }
+            if (wanted != block) {
+                n = postings.decodeBlock(wanted, docs);
+                block = wanted;
+            }
+            return Arrays.binarySearch(docs, 0, n, doc) >= 0;
+        }
+    }
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<String, Integer> roomIds = new HashMap<>();
+    private int nextRoomId;
+    private long[] positions = new long[1024];
+    private long[] seqs = new long[1024];
+    // The highest seq of any message up to and including this one. Seqs are only roughly ordered
+    // across rooms; this is not, so a search can tell where nothing older is after its since:.
+    private long[] seqCeilings = new long[1024];
+    private int[] rooms = new int[1024];
+    private int size;
+    // Queries share the read lock; the index thread takes the write lock once per message
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MessageJournal journal;
+    private final ChatServer server;
+    private Thread follower;
+    private volatile boolean running = true;
+
+    HistoryIndex(MessageJournal journal, ChatServer server) {
+        this.journal = journal;
+        this.server = server;
+    }
+
+    void start() {
+        follower = new Thread(this::followLoop, "chat-index");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(follower);
+        try {
+            follower.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void followLoop() {
+        long start = System.nanoTime();
+        boolean caughtUp = false;
+        long position = 0;
+        long oldest = 0;
+        while (running) {
+            if (journal.getOldestPosition() != oldest) {
+                oldest = journal.getOldestPosition();
+                prune(oldest);
+            }
+            long next = journal.readFrom(position, BATCH, this::add);
+            if (next != position) {
+                position = next;
+                continue;
+            }
+            if (!caughtUp) {
+                caughtUp = true;
+                server.log("History index built: " + size() + " messages in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    // A journal record at position
+    private void add(long position, String room, String sender, ChatMessage message) {
+        List<String> words = tokenize(message.getBody());
+        lock.writeLock().lock();
+        try {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                seqs = Arrays.copyOf(seqs, size * 2);
+                seqCeilings = Arrays.copyOf(seqCeilings, size * 2);
+                rooms = Arrays.copyOf(rooms, size * 2);
+            }
+            int doc = size;
+            positions[doc] = position;
+            seqs[doc] = message.getSeq();
+            seqCeilings[doc] = doc == 0 ? seqs[doc] : Math.max(seqCeilings[doc - 1], seqs[doc]);
+            rooms[doc] = roomIds.computeIfAbsent(room, r -> nextRoomId++);
+            for (String word : words) {
+                terms.computeIfAbsent(word, w -> new Postings()).add(doc);
+            }
+            if (!sender.isEmpty()) {
+                terms.computeIfAbsent("from:" + sender.toLowerCase(Locale.ROOT), w -> new Postings()).add(doc);
+            }
+            size = doc + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Forgets the messages before position, whose segments retention has deleted
+    private void prune(long position) {
+        lock.writeLock().lock();
+        try {
+            int cut = Arrays.binarySearch(positions, 0, size, position);
+            if (cut < 0) {
+                cut = -cut - 1;
+            }
+            if (cut == 0) {
+                return;
+            }
+            size -= cut;
+            System.arraycopy(positions, cut, positions, 0, size);
+            System.arraycopy(seqs, cut, seqs, 0, size);
+            System.arraycopy(seqCeilings, cut, seqCeilings, 0, size);
+            System.arraycopy(rooms, cut, rooms, 0, size);
+            for (Iterator<Map.Entry<String, Postings>> it = terms.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Postings> term = it.next();
+                Postings kept = term.getValue().from(cut);
+                if (kept.count == 0) {
+                    it.remove();
+                } else {
+                    term.setValue(kept);
+                }
+            }
+            BitSet live = new BitSet();
+            for (int doc = 0; doc < size; doc++) {
+                live.set(rooms[doc]);
+            }
+            roomIds.values().removeIf(id -> !live.get(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Journal positions of the newest `limit` messages in room that contain every term and have
+    // seq > afterSeq, oldest first. Terms are words or "from:name".
+    long[] search(List<String> query, String room, long afterSeq, int limit) {
+        List<String> words = new ArrayList<>();
+        for (String term : query) {
+            if (term.startsWith("from:")) {
+                words.add(term.toLowerCase(Locale.ROOT));
+            } else {
+                words.addAll(tokenize(term));
+            }
+        }
+        if (words.isEmpty() || limit <= 0) {
+            return new long[0];
+        }
+        lock.readLock().lock();
+        try {
+            Integer roomId = roomIds.get(room);
+            if (roomId == null) {
+                return new long[0];
+            }
+            // Walk the rarest word's postings from the newest message back, looking each one up in
+            // the other words' lists a block at a time
+            List<Postings> lists = new ArrayList<>();
+            for (String word : words) {
+                Postings postings = terms.get(word);
+                if (postings == null) {
+                    return new long[0];
+                }
+                lists.add(postings);
+            }
+            lists.sort((a, b) -> Integer.compare(a.count, b.count));
+            Postings rarest = lists.get(0);
+            List<Cursor> others = new ArrayList<>();
+            for (Postings postings : lists.subList(1, lists.size())) {
+                others.add(new Cursor(postings));
+            }
+            // Stops at the limit, or where every older message is at or before afterSeq
+            long[] found = new long[Math.min(limit, rarest.count)];
+            int count = 0;
+            int[] docs = new int[BLOCK];
+            scan:
+            for (int block = rarest.blocks() - 1; block >= 0; block--) {
+                for (int i = rarest.decodeBlock(block, docs) - 1; i >= 0; i--) {
+                    int doc = docs[i];
+                    if (seqCeilings[doc] <= afterSeq) {
+                        break scan;
+                    }
+                    if (rooms[doc] == roomId && seqs[doc] > afterSeq && containsAll(others, doc)) {
+                        found[count++] = positions[doc];
+                        if (count == found.length) {
+                            break scan;
+                        }
+                    }
+                }
+            }
+            // Back to oldest first
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = found[count - 1 - i];
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean containsAll(List<Cursor> cursors, int doc) {
+        for (Cursor cursor : cursors) {
+            if (!cursor.contains(doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
\ No newline at end of file
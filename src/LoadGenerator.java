@@ -0,0 +1,609 @@
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load test: connects thousands of bots to a chat server over the binary protocol and
+// measures what they see. Each bot is one socket and one reader thread (virtual when the runtime
+// has them); a single pacing thread does all the sending, stamping every message with the time
+// it was due to go out, so a stalled server shows up as latency instead of as a lower send rate.
+// Fan-out latency is from that time until each member of the room has decoded the message.
+//
+//   java -cp app/target/chat606-1.0-SNAPSHOT.jar LoadGenerator scenario=steady clients=2000 rate=200 duration=60
+//
+// Scenarios:
+//   login   connect every client, then sit idle (connection setup time, idle memory)
+//   storm   login with every client asking for the same name; checks they all got distinct ones
+//   steady  chat at `rate` messages a second spread over all clients
+//   bursty  every `burstEvery` ms one room gets `burstSize` messages back to back, on top of `rate`
+//   churn   `churnRate` clients a second leave and log back in while the others chat at `rate`
+//   slow    like steady, but a `slowFraction` of the clients pause `slowDelay` ms per message read
+//
+// With embedded=thread|virtual|nio the server runs in this JVM, configured from -Dchat.* as usual;
+// otherwise give serverPid=<pid> to have the server's RSS sampled from /proc. Results go to
+// stdout and, as JSON, to `out`.
+public class LoadGenerator {
+    private static final String MARKER = "lt:";
+    private static final long PACE_MILLIS = 5;
+    private static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("scenario", "steady");
+        DEFAULTS.put("host", "127.0.0.1");
+        DEFAULTS.put("port", "5001");
+        DEFAULTS.put("clients", "1000");
+        DEFAULTS.put("rooms", "1");
+        DEFAULTS.put("rate", "100");
+        DEFAULTS.put("payload", "64");
+        DEFAULTS.put("duration", "30");
+        DEFAULTS.put("warmup", "5");
+        DEFAULTS.put("connectRate", "500");
+        DEFAULTS.put("connectTimeout", "10000");
+        DEFAULTS.put("burstSize", "200");
+        DEFAULTS.put("burstEvery", "1000");
+        DEFAULTS.put("churnRate", "20");
+        DEFAULTS.put("slowFraction", "0.1");
+        DEFAULTS.put("slowDelay", "20");
+        DEFAULTS.put("threads", "virtual");
+        DEFAULTS.put("embedded", "");
+        DEFAULTS.put("serverPid", "");
+        DEFAULTS.put("out", "load-report.json");
+    }
+
+    private final Map<String, String> options;
+    private final String scenario;
+    private final InetSocketAddress address;
+    private final int clients;
+    private final int rooms;
+    private final double rate;
+    private final String padding;
+    private final int connectTimeoutMillis;
+    private final ThreadFactory threads;
+    private final Bot[] bots;
+    // Live members per room, for the fan-out each message should get
+    private final AtomicIntegerArray roomMembers;
+
+    private final LatencyHistogram setupMicros = new LatencyHistogram();
+    private final LatencyHistogram latencyMicros = new LatencyHistogram();
+    private final LatencyHistogram slowLatencyMicros = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final AtomicInteger connectFailures = new AtomicInteger();
+    private final AtomicReference<String> firstFailure = new AtomicReference<>();
+    private final AtomicLong churned = new AtomicLong();
+    private final AtomicLong rssPeak = new AtomicLong(-1);
+    private volatile long rssLast = -1;
+    // System.nanoTime() from which messages count; earlier ones are warmup
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile boolean stopping;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.scenario = options.get("scenario");
+        this.address = new InetSocketAddress(options.get("host"), intOption("port"));
+        this.clients = intOption("clients");
+        this.rooms = Math.max(1, intOption("rooms"));
+        boolean chatting = !scenario.equals("login") && !scenario.equals("storm");
+        this.rate = chatting ? Double.parseDouble(options.get("rate")) : 0;
+        StringBuilder pad = new StringBuilder();
+        for (int i = 0; i < intOption("payload"); i++) {
+            pad.append((char) ('a' + i % 26));
+        }
+        this.padding = pad.toString();
+        this.connectTimeoutMillis = intOption("connectTimeout");
+        this.threads = botThreads(options.get("threads").equals("virtual"));
+        this.bots = new Bot[clients];
+        this.roomMembers = new AtomicIntegerArray(rooms);
+        int slow = scenario.equals("slow") ? (int) (clients * Double.parseDouble(options.get("slowFraction"))) : 0;
+        for (int i = 0; i < clients; i++) {
+            String name = scenario.equals("storm") ? "bot" : "bot" + i;
+            bots[i] = new Bot(name, i % rooms, i < slow ? intOption("slowDelay") : 0);
+        }
+    }
+
+    private int intOption(String key) {
+        return Integer.parseInt(options.get(key));
+    }
+
+    // One simulated client. Its reader runs on its own thread; sends come from the pacing thread.
+    private final class Bot {
+        final String requestedName;
+        final int room;
+        final int readDelayMillis;
+        volatile String name;
+        volatile Socket socket;
+        volatile OutputStream out;
+        // Messages due before this were sent before the bot joined (journal replay); not counted
+        volatile long joinedAt = Long.MAX_VALUE;
+        volatile boolean ready;
+
+        Bot(String requestedName, int room, int readDelayMillis) {
+            this.requestedName = requestedName;
+            this.room = room;
+            this.readDelayMillis = readDelayMillis;
+            this.name = requestedName;
+        }
+
+        String roomName() {
+            return "load-" + room;
+        }
+
+        // Connects, joins and then reads until the connection goes; counts down `started` once
+        // the bot is in (or has failed)
+        void run(CountDownLatch started) {
+            ProtocolReader in;
+            try {
+                long begin = System.nanoTime();
+                Socket connected = new Socket();
+                connected.setTcpNoDelay(true);
+                connected.connect(address, connectTimeoutMillis);
+                connected.setSoTimeout(connectTimeoutMillis);
+                in = new ProtocolReader(connected.getInputStream(), MAX_MESSAGE_BYTES);
+                OutputStream stream = new BufferedOutputStream(connected.getOutputStream());
+                stream.write((ChatProtocol.helloLine(requestedName) + "\n").getBytes(StandardCharsets.UTF_8));
+                stream.flush();
+                awaitBinaryReply(in);
+                connected.setSoTimeout(0);
+                setupMicros.record((System.nanoTime() - begin) / 1000);
+                socket = connected;
+                out = stream;
+                if (rooms > 1) {
+                    send(ChatMessage.of(ChatMessage.Type.CHAT, "/join " + roomName()));
+                }
+            } catch (IOException e) {
+                connectFailures.incrementAndGet();
+                String failure = e.toString();
+                firstFailure.compareAndSet(null, failure.length() > 200 ? failure.substring(0, 200) + "..." : failure);
+                started.countDown();
+                return;
+            }
+            joinedAt = System.nanoTime();
+            roomMembers.incrementAndGet(room);
+            ready = true;
+            started.countDown();
+            try {
+                ChatMessage message;
+                while ((message = in.readFrame()) != null) {
+                    onMessage(message);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // Closed by us, or by the server
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            leave();
+        }
+
+        private void awaitBinaryReply(ProtocolReader in) throws IOException {
+            while (true) {
+                String line = in.readLine();
+                if (line == null) {
+                    throw new EOFException("Connection closed during handshake");
+                }
+                if (line.startsWith(ChatProtocol.PROTO_PREFIX + ChatProtocol.BINARY_V1 + " ")) {
+                    return;
+                }
+                if (!line.equals("SUBMIT_NAME")) {
+                    throw new IOException("Server did not agree to binary framing: " + line);
+                }
+            }
+        }
+
+        private void onMessage(ChatMessage message) throws InterruptedException {
+            if (message.getType() == ChatMessage.Type.NAME_CHANGED) {
+                name = message.getBody();
+                return;
+            }
+            if (message.getType() != ChatMessage.Type.CHAT) {
+                return;
+            }
+            long now = System.nanoTime();
+            String body = message.getBody();
+            int marker = body.indexOf(MARKER);
+            if (marker < 0) {
+                return;
+            }
+            int end = body.indexOf(' ', marker);
+            long due = Long.parseLong(body.substring(marker + MARKER.length(), end < 0 ? body.length() : end));
+            if (due >= joinedAt && due >= measureFrom) {
+                received.increment();
+                (readDelayMillis > 0 ? slowLatencyMicros : latencyMicros).record((now - due) / 1000);
+            }
+            if (readDelayMillis > 0) {
+                Thread.sleep(readDelayMillis);
+            }
+        }
+
+        void send(ChatMessage message) throws IOException {
+            OutputStream target = out;
+            synchronized (target) {
+                target.write(ChatProtocol.encodeFrame(message));
+                target.flush();
+            }
+        }
+
+        // Sends one stamped chat message; false if the bot is not connected
+        boolean chat(long due) {
+            if (!ready) {
+                return false;
+            }
+            try {
+                send(ChatMessage.of(ChatMessage.Type.CHAT, name + ": " + MARKER + due + " " + padding));
+            } catch (IOException e) {
+                return false;
+            }
+            if (due >= measureFrom) {
+                sent.increment();
+                expected.add(roomMembers.get(room));
+            }
+            return true;
+        }
+
+        // Asks the server to let us go, then closes; the reader sees the end and calls leave()
+        void exit() {
+            if (!ready) {
+                return;
+            }
+            try {
+                send(ChatMessage.of(ChatMessage.Type.EXIT, "EXIT"));
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            closeSocket();
+        }
+
+        private synchronized void leave() {
+            if (ready) {
+                ready = false;
+                roomMembers.decrementAndGet(room);
+            }
+            closeSocket();
+        }
+
+        private void closeSocket() {
+            try {
+                Socket current = socket;
+                if (current != null) {
+                    current.close();
+                }
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+
+    private void runScenario() throws InterruptedException {
+        Thread sampler = startRssSampler();
+        long loginStart = System.nanoTime();
+        connectAll();
+        double loginSeconds = (System.nanoTime() - loginStart) / 1e9;
+        int connected = clients - connectFailures.get();
+        System.out.printf(Locale.ROOT, "%d of %d clients connected in %.1f s%n", connected, clients, loginSeconds);
+
+        long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration"));
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        pace(start, start + warmupNanos + durationNanos);
+        // Give the last messages time to arrive before counting
+        Thread.sleep(1000);
+        double measuredSeconds = durationNanos / 1e9;
+
+        stopping = true;
+        Map<String, Integer> names = new HashMap<>();
+        for (Bot bot : bots) {
+            if (bot.ready) {
+                names.merge(bot.name, 1, Integer::sum);
+            }
+            bot.exit();
+        }
+        sampler.interrupt();
+        report(loginSeconds, measuredSeconds, names);
+    }
+
+    // Starts the bots at `connectRate` a second (0: all at once) and waits until each is in or
+    // has failed
+    private void connectAll() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(clients);
+        int connectRate = intOption("connectRate");
+        long begin = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            if (connectRate > 0) {
+                long due = begin + (long) (i * 1e9 / connectRate);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            Bot bot = bots[i];
+            threads.newThread(() -> bot.run(started)).start();
+        }
+        started.await();
+    }
+
+    // The pacing thread: chat at `rate`, plus the scenario's bursts or churn, until `end`.
+    // Message k is due at start + k / rate; if sending falls behind, the due time stays put.
+    private void pace(long start, long end) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean bursty = scenario.equals("bursty");
+        boolean churn = scenario.equals("churn");
+        long burstEveryNanos = TimeUnit.MILLISECONDS.toNanos(intOption("burstEvery"));
+        double churnRate = churn ? Double.parseDouble(options.get("churnRate")) : 0;
+        long messages = 0;
+        long bursts = 0;
+        long churns = 0;
+        int next = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                return;
+            }
+            double elapsed = (now - start) / 1e9;
+            for (; rate > 0 && messages < (long) (elapsed * rate); messages++) {
+                long due = start + (long) (messages * 1e9 / rate);
+                // Skip bots that are down (churning or failed) rather than lose the message
+                for (int tries = 0; tries < clients && !bots[next].chat(due); tries++) {
+                    next = (next + 1) % clients;
+                }
+                next = (next + 1) % clients;
+            }
+            for (; bursty && bursts <= (now - start) / burstEveryNanos; bursts++) {
+                burst(start + bursts * burstEveryNanos, random.nextInt(rooms));
+            }
+            for (; churnRate > 0 && churns < (long) (elapsed * churnRate); churns++) {
+                churn(bots[random.nextInt(clients)]);
+            }
+            Thread.sleep(PACE_MILLIS);
+        }
+    }
+
+    // The room's members take turns until burstSize messages are out
+    private void burst(long due, int room) {
+        List<Bot> members = new ArrayList<>();
+        for (Bot bot : bots) {
+            if (bot.room == room && bot.ready) {
+                members.add(bot);
+            }
+        }
+        for (int i = 0, failed = 0; i < intOption("burstSize") && failed < members.size(); i++) {
+            failed = members.get(i % members.size()).chat(due) ? 0 : failed + 1;
+        }
+    }
+
+    // The bot leaves and logs back in on a new connection, off the pacing thread
+    private void churn(Bot bot) {
+        if (!bot.ready) {
+            return;
+        }
+        bot.exit();
+        churned.incrementAndGet();
+        threads.newThread(() -> {
+            try {
+                while (bot.ready) {
+                    Thread.sleep(1);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!stopping) {
+                bot.run(new CountDownLatch(1));
+            }
+        }).start();
+    }
+
+    // Samples the server's resident set size once a second, if we know where it lives
+    private Thread startRssSampler() {
+        String pid = options.get("embedded").isEmpty() ? options.get("serverPid") : "self";
+        Thread sampler = new Thread(() -> {
+            if (pid.isEmpty()) {
+                return;
+            }
+            Path status = Paths.get("/proc", pid, "status");
+            try {
+                while (true) {
+                    for (String line : Files.readAllLines(status)) {
+                        if (line.startsWith("VmRSS:")) {
+                            long bytes = Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                            rssLast = bytes;
+                            rssPeak.accumulateAndGet(bytes, Math::max);
+                        }
+                    }
+                    Thread.sleep(1000);
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Cannot read server RSS from " + status + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                // Done
+            }
+        }, "load-rss");
+        sampler.setDaemon(true);
+        sampler.start();
+        return sampler;
+    }
+
+    // names: how many of the clients still connected at the end have each name
+    private void report(double loginSeconds, double measuredSeconds, Map<String, Integer> names) {
+        int connected = clients - connectFailures.get();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "Scenario %s: %d clients in %d room(s), %d connected, %d failed%n",
+                scenario, clients, rooms, connected, connectFailures.get()));
+        if (firstFailure.get() != null) {
+            text.append("  first failure: ").append(firstFailure.get()).append('\n');
+        }
+        text.append(String.format(Locale.ROOT, "Connection setup (connect + handshake): %s; all in after %.1f s%n",
+                summary(setupMicros), loginSeconds));
+        if (rate > 0) {
+            text.append(String.format(Locale.ROOT,
+                    "Sent %d messages (%.1f/s), received %d (%.1f/s), %.1f%% of the expected fan-out%n",
+                    sent.sum(), sent.sum() / measuredSeconds, received.sum(), received.sum() / measuredSeconds,
+                    expected.sum() == 0 ? 0 : 100.0 * received.sum() / expected.sum()));
+            text.append("Fan-out latency: ").append(summary(latencyMicros)).append('\n');
+        }
+        if (slowLatencyMicros.getCount() > 0) {
+            text.append("Fan-out latency, slow readers: ").append(summary(slowLatencyMicros)).append('\n');
+        }
+        if (churned.get() > 0) {
+            text.append("Churned ").append(churned.get()).append(" logins during the run\n");
+        }
+        int duplicates = 0;
+        for (int holders : names.values()) {
+            duplicates += holders - 1;
+        }
+        if (scenario.equals("storm")) {
+            text.append(String.format(Locale.ROOT, "Names: %d distinct, %d duplicated%n", names.size(), duplicates));
+        }
+        text.append(rssPeak.get() < 0 ? "Server RSS: not sampled (give serverPid=<pid> or embedded=<engine>)\n"
+                : String.format(Locale.ROOT, "Server RSS: peak %.1f MB, last %.1f MB%n", rssPeak.get() / 1048576.0,
+                        rssLast / 1048576.0));
+        System.out.print(text);
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"options\": {");
+        String separator = "";
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            json.append(separator).append(quote(option.getKey())).append(": ").append(quote(option.getValue()));
+            separator = ", ";
+        }
+        json.append("},\n");
+        field(json, "clients", clients);
+        field(json, "connected", connected);
+        field(json, "connectFailures", connectFailures.get());
+        field(json, "loginSeconds", loginSeconds);
+        field(json, "measuredSeconds", measuredSeconds);
+        json.append("  \"connectSetupMicros\": ").append(histogramJson(setupMicros)).append(",\n");
+        json.append("  \"fanOutLatencyMicros\": ").append(histogramJson(latencyMicros)).append(",\n");
+        json.append("  \"slowReaderLatencyMicros\": ").append(histogramJson(slowLatencyMicros)).append(",\n");
+        field(json, "sent", sent.sum());
+        field(json, "received", received.sum());
+        field(json, "expectedDeliveries", expected.sum());
+        field(json, "sentPerSecond", sent.sum() / measuredSeconds);
+        field(json, "receivedPerSecond", received.sum() / measuredSeconds);
+        field(json, "churnedLogins", churned.get());
+        if (scenario.equals("storm")) {
+            field(json, "distinctNames", names.size());
+            field(json, "duplicateNames", duplicates);
+        }
+        json.append("  \"serverRssPeakBytes\": ").append(rssPeak.get() < 0 ? "null" : rssPeak.get()).append(",\n");
+        json.append("  \"serverRssLastBytes\": ").append(rssLast < 0 ? "null" : rssLast).append("\n}\n");
+        Path out = Paths.get(options.get("out"));
+        try {
+            Files.write(out, json.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("Results written to " + out.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Cannot write " + out + ": " + e.getMessage());
+        }
+    }
+
+    private static String summary(LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "no samples";
+        }
+        return String.format(Locale.ROOT, "p50 %s  p90 %s  p99 %s  p99.9 %s  max %s  (n=%d)",
+                millis(histogram.valueAt(50)), millis(histogram.valueAt(90)), millis(histogram.valueAt(99)),
+                millis(histogram.valueAt(99.9)), millis(histogram.getMax()), histogram.getCount());
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.2f ms", micros / 1000.0);
+    }
+
+    private static String histogramJson(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT,
+                "{\"count\": %d, \"min\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, "
+                        + "\"p99_9\": %d, \"max\": %d}",
+                histogram.getCount(), histogram.getMin(), histogram.getMean(), histogram.valueAt(50),
+                histogram.valueAt(90), histogram.valueAt(99), histogram.valueAt(99.9), histogram.getMax());
+    }
+
+    private static void field(StringBuilder json, String name, Object value) {
+        String number = value instanceof Double ? String.format(Locale.ROOT, "%.2f", value) : String.valueOf(value);
+        json.append("  ").append(quote(name)).append(": ").append(number).append(",\n");
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    // Virtual threads need Java 21; on older runtimes fall back to platform threads
+    private static ThreadFactory botThreads(boolean virtual) {
+        if (virtual) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "load-bot-", 0L);
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads are not available on Java " + Runtime.version().feature()
+                        + ", using platform threads");
+            }
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable, "load-bot");
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String key = equals < 0 ? arg : arg.substring(0, equals).replaceFirst("^--", "");
+            if (equals < 0 || !DEFAULTS.containsKey(key)) {
+                System.err.println("Usage: LoadGenerator [key=value ...], keys and defaults: " + DEFAULTS);
+                System.exit(2);
+            }
+            options.put(key, arg.substring(equals + 1));
+        }
+        List<String> scenarios = List.of("login", "storm", "steady", "bursty", "churn", "slow");
+        if (!scenarios.contains(options.get("scenario"))) {
+            System.err.println("Unknown scenario " + options.get("scenario") + ", expected one of " + scenarios);
+            System.exit(2);
+        }
+
+        ChatServer server = null;
+        String embedded = options.get("embedded");
+        if (!embedded.isEmpty()) {
+            ServerConfig config = ServerConfig.fromProperties(System.getProperties());
+            // Its chatter would drown the report
+            if (System.getProperty("chat.logLevel") == null) {
+                config.setLogLevel(ServerLog.Level.WARN);
+            }
+            config.setEngine(ServerConfig.Engine.valueOf(embedded.toUpperCase(Locale.ROOT)));
+            config.setPort(Integer.parseInt(options.get("port")));
+            server = new ChatServer(config, line -> {
+            }, users -> {
+            });
+            server.startServer();
+        }
+        new LoadGenerator(options).runScenario();
+        if (server != null) {
+            server.stopServer();
+        }
+        System.exit(0);
+    }
+}
\ No newline at end of file
@@ -2,8 +2,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.util.concurrent.ExecutionException;
 
 public class LoginFrame extends JFrame {
     private JTextField usernameField;
@@ -21,8 +20,21 @@ public class LoginFrame extends JFrame {
     private static final int MIN_USERNAME_LENGTH = 2;
     private static final int MAX_USERNAME_LENGTH = 15;
 
+    // Where Join connects: -Dchat.host, -Dchat.port and -Dchat.connectTimeoutMillis, or the
+    // host and port on the command line
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis = Integer.getInteger("chat.connectTimeoutMillis",
+            ChatClient.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+
     public LoginFrame() {
+        this(System.getProperty("chat.host", "127.0.0.1"), Integer.getInteger("chat.port", 5001));
+    }
+
+    public LoginFrame(String host, int port) {
         super("Login - 606 ChatApp");
+        this.host = host;
+        this.port = port;
 
         setTitle("606 ChatApp - Login");
         setSize(400, 500);
@@ -116,34 +128,37 @@ public class LoginFrame extends JFrame {
         validationLabel.setText(" ");
         setUIEnabled(false);
 
-        SwingWorker<Boolean, Void> connector = new SwingWorker<>() {
+        // The connection made here is the one the chat window uses: connect and join off the EDT,
+        // then hand the joined client over
+        SwingWorker<ChatClient, Void> connector = new SwingWorker<>() {
             @Override
-            protected Boolean doInBackground() throws Exception {
-                try (Socket testSocket = new Socket()) {
-                    testSocket.connect(new InetSocketAddress("127.0.0.1", 5001), 3000);
-                    return true;
+            protected ChatClient doInBackground() throws Exception {
+                ChatClient client = new ChatClient(host, port, connectTimeoutMillis);
+                try {
+                    client.join(username, connectTimeoutMillis);
                 } catch (IOException e) {
-                    return false;
+                    client.close();
+                    throw e;
                 }
+                return client;
             }
 
             @Override
             protected void done() {
                 try {
-                    if (get()) {
-                        System.out.println("Successfully connected as: " + username);
+                    ChatClient client = get();
+                    System.out.println("Successfully connected as: " + username);
 
-                        ChatClientGUI chatGUI = new ChatClientGUI(username);
-                        chatGUI.setVisible(true);
+                    ChatClientGUI chatGUI = new ChatClientGUI(client);
+                    chatGUI.setVisible(true);
 
-                        dispose();
-
-                    } else {
-                        JOptionPane.showMessageDialog(LoginFrame.this,
-                                "Cannot connect to the server. Please ensure the server is running.",
-                                "Connection Error", JOptionPane.ERROR_MESSAGE);
-                        setUIEnabled(true);
-                    }
+                    dispose();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(LoginFrame.this,
+                            "Cannot connect to the server at " + host + ":" + port
+                                    + ". Please ensure the server is running.",
+                            "Connection Error", JOptionPane.ERROR_MESSAGE);
+                    setUIEnabled(true);
                 } catch (Exception e) {
                     JOptionPane.showMessageDialog(LoginFrame.this,
                             "An unexpected error occurred: " + e.getMessage(),
@@ -367,6 +382,8 @@ public class LoginFrame extends JFrame {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        SwingUtilities.invokeLater(() -> new LoginFrame().setVisible(true));
+        String host = args.length > 0 ? args[0] : System.getProperty("chat.host", "127.0.0.1");
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("chat.port", 5001);
+        SwingUtilities.invokeLater(() -> new LoginFrame(host, port).setVisible(true));
     }
 }
\ No newline at end of file
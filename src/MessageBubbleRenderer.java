@@ -0,0 +1,152 @@
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Paints every row of the chat view with one component: a rounded bubble with the sender, the
+// wrapped text and the time, or a centered system line. Nothing is kept per message but its
+// MessageListModel.Entry, and the wrapping is cached in the entry until the list width changes.
+class MessageBubbleRenderer extends JComponent implements ListCellRenderer<MessageListModel.Entry> {
+    private static final Color MY_BUBBLE_COLOR = new Color(177, 133, 219);
+    private static final Color OTHER_BUBBLE_COLOR = new Color(144, 238, 144, 220);
+    private static final Color PRIVATE_BUBBLE_COLOR = new Color(135, 206, 250, 220);
+    private static final Color BUBBLE_BORDER_COLOR = new Color(40, 30, 93, 153);
+    private static final Color SENDER_COLOR = new Color(29, 0, 86);
+    private static final Color SYSTEM_COLOR = new Color(255, 215, 0);
+    private static final Font MESSAGE_FONT = new Font("Segoe UI Emoji", Font.PLAIN, 14);
+    private static final Font SENDER_FONT = new Font("Segoe UI Emoji", Font.BOLD, 14);
+    private static final Font SYSTEM_FONT = new Font("Segoe UI Emoji", Font.ITALIC, 14);
+    private static final Font TIMESTAMP_FONT = new Font("Segoe UI", Font.ITALIC, 10);
+    // Space around a row, inside a bubble and between its lines
+    private static final int MARGIN_X = 20;
+    private static final int MARGIN_Y = 10;
+    private static final int PADDING_X = 12;
+    private static final int PADDING_Y = 10;
+    private static final int GAP = 5;
+    private static final int ARC = 20;
+
+    private final FontMetrics messageMetrics = getFontMetrics(MESSAGE_FONT);
+    private final FontMetrics senderMetrics = getFontMetrics(SENDER_FONT);
+    private final FontMetrics systemMetrics = getFontMetrics(SYSTEM_FONT);
+    private final FontMetrics timestampMetrics = getFontMetrics(TIMESTAMP_FONT);
+    private MessageListModel.Entry entry;
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends MessageListModel.Entry> list,
+            MessageListModel.Entry value, int index, boolean isSelected, boolean cellHasFocus) {
+        entry = value;
+        int width = list.getWidth();
+        if (value.layoutWidth != width) {
+            layout(value, width);
+        }
+        setPreferredSize(new Dimension(width, value.height));
+        return this;
+    }
+
+    private void layout(MessageListModel.Entry value, int width) {
+        value.layoutWidth = width;
+        if (value.system) {
+            value.lines = wrap(value.text, systemMetrics, width - 2 * MARGIN_X);
+            value.height = value.lines.length * systemMetrics.getHeight() + 2 * MARGIN_Y;
+            return;
+        }
+        // Bubbles take up to 70% of the row, like a phone's chat view
+        int textWidth = Math.max(60, width * 7 / 10 - 2 * PADDING_X);
+        value.lines = wrap(value.text, messageMetrics, textWidth);
+        int widest = Math.max(senderMetrics.stringWidth(value.sender), timestampMetrics.stringWidth(value.timestamp));
+        for (String line : value.lines) {
+            widest = Math.max(widest, messageMetrics.stringWidth(line));
+        }
+        value.bubbleWidth = widest + 2 * PADDING_X;
+        value.height = 2 * MARGIN_Y + 2 * PADDING_Y + senderMetrics.getHeight() + GAP
+                + value.lines.length * messageMetrics.getHeight() + GAP + timestampMetrics.getHeight();
+    }
+
+    // Greedy word wrap; a word longer than the line is broken between characters
+    private static String[] wrap(String text, FontMetrics metrics, int maxWidth) {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : text.split("\n", -1)) {
+            StringBuilder line = new StringBuilder();
+            for (String word : paragraph.split(" ", -1)) {
+                String candidate = line.length() == 0 ? word : line + " " + word;
+                if (metrics.stringWidth(candidate) <= maxWidth) {
+                    line.setLength(0);
+                    line.append(candidate);
+                    continue;
+                }
+                if (line.length() > 0) {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                }
+                // Summed character widths, so a huge word is not measured over and over
+                int start = 0;
+                int lineWidth = 0;
+                for (int i = 0; i < word.length();) {
+                    int codePoint = word.codePointAt(i);
+                    int charWidth = metrics.charWidth(codePoint);
+                    if (lineWidth + charWidth > maxWidth && i > start) {
+                        lines.add(word.substring(start, i));
+                        start = i;
+                        lineWidth = 0;
+                    }
+                    lineWidth += charWidth;
+                    i += Character.charCount(codePoint);
+                }
+                line.append(word, start, word.length());
+            }
+            lines.add(line.toString());
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        if (entry.system) {
+            paintSystem(g2d);
+        } else {
+            paintBubble(g2d);
+        }
+        g2d.dispose();
+    }
+
+    private void paintSystem(Graphics2D g2d) {
+        g2d.setFont(SYSTEM_FONT);
+        g2d.setColor(SYSTEM_COLOR);
+        int y = MARGIN_Y + systemMetrics.getAscent();
+        for (String line : entry.lines) {
+            g2d.drawString(line, (getWidth() - systemMetrics.stringWidth(line)) / 2, y);
+            y += systemMetrics.getHeight();
+        }
+    }
+
+    private void paintBubble(Graphics2D g2d) {
+        int x = entry.mine ? getWidth() - MARGIN_X - entry.bubbleWidth : MARGIN_X;
+        int height = getHeight() - 2 * MARGIN_Y;
+        g2d.setColor(entry.isPrivate ? PRIVATE_BUBBLE_COLOR : entry.mine ? MY_BUBBLE_COLOR : OTHER_BUBBLE_COLOR);
+        g2d.fillRoundRect(x, MARGIN_Y, entry.bubbleWidth, height, ARC, ARC);
+        g2d.setColor(BUBBLE_BORDER_COLOR);
+        g2d.setStroke(new BasicStroke(3));
+        g2d.drawRoundRect(x + 2, MARGIN_Y + 2, entry.bubbleWidth - 4, height - 4, ARC, ARC);
+
+        int textX = x + PADDING_X;
+        int y = MARGIN_Y + PADDING_Y + senderMetrics.getAscent();
+        g2d.setFont(SENDER_FONT);
+        g2d.setColor(SENDER_COLOR);
+        g2d.drawString(entry.sender, textX, y);
+        y += senderMetrics.getDescent() + GAP + messageMetrics.getAscent();
+        g2d.setFont(MESSAGE_FONT);
+        g2d.setColor(Color.BLACK);
+        for (String line : entry.lines) {
+            g2d.drawString(line, textX, y);
+            y += messageMetrics.getHeight();
+        }
+        y += GAP - messageMetrics.getHeight() + messageMetrics.getDescent() + timestampMetrics.getAscent();
+        g2d.setFont(TIMESTAMP_FONT);
+        g2d.drawString(entry.timestamp, textX, y);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,513 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Append-only history of chat broadcasts in memory-mapped segment files (0000000001.journal,
+// 0000000002.journal, ...). Broadcasting threads only queue a message; one writer thread copies
+// it into the current segment, rolls to a new segment when it is full, deletes the oldest beyond
+// the retention limit and forces the mapping to disk at most once per fsync interval (group
+// commit). Reads go straight to the mapped segments.
+//
+// Record: int length | long seq | long timestamp | int senderId | byte type | short roomLength |
+// short senderLength | room UTF-8 | sender name UTF-8 | body UTF-8, where length counts the bytes
+// after itself. Segments are zero-filled,
+// so a zero length marks the end of the written part.
+//
+// A sparse index (every INDEX_EVERY-th record's seq and offset) finds where to start reading for
+// "everything since seq N"; for each room the positions of its last few records are kept for
+// replay on join; a room drops out once retention has deleted all of its records. Both are
+// rebuilt by scanning the segments when the journal is opened.
+class MessageJournal {
+    interface RecordHandler {
+        void accept(String room, ChatMessage message);
+    }
+
+    // A RecordHandler that is also told where each record is, for readAt(), and who sent it
+    interface PositionedHandler {
+        void accept(long position, String room, String sender, ChatMessage message);
+    }
+
+    private static final int INDEX_EVERY = 64;
+    private static final int RECORD_HEADER_BYTES = 8 + 8 + 4 + 1 + 2 + 2;
+    private static final String SUFFIX = ".journal";
+
+    private static final class Entry {
+        final String room;
+        // The name the server knew the sender by, not whatever the body claims
+        final String sender;
+        final ChatMessage message;
+
+        Entry(String room, String sender, ChatMessage message) {
+            this.room = room;
+            this.sender = sender;
+            this.message = message;
+        }
+    }
+
+    private static final class Segment {
+        final int number;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // Writer-owned view, so its position can be moved freely
+        final ByteBuffer writeView;
+        // End of the last complete record; written after the record's bytes, so readers stop here
+        volatile int limit;
+        int records;
+        // Sparse index; guarded by the segment
+        long[] indexSeqs = new long[16];
+        int[] indexOffsets = new int[16];
+        int indexSize;
+
+        Segment(int number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writeView = buffer.duplicate();
+        }
+
+        synchronized void index(long seq, int offset) {
+            if (indexSize == indexSeqs.length) {
+                indexSeqs = java.util.Arrays.copyOf(indexSeqs, indexSize * 2);
+                indexOffsets = java.util.Arrays.copyOf(indexOffsets, indexSize * 2);
+            }
+            indexSeqs[indexSize] = seq;
+            indexOffsets[indexSize] = offset;
+            indexSize++;
+        }
+
+        // Offset to start scanning from for records after seq. Seqs are only roughly ordered across
+        // rooms, so start one index entry earlier than the match.
+        synchronized int offsetBefore(long seq) {
+            int entry = -1;
+            for (int low = 0, high = indexSize - 1; low <= high;) {
+                int mid = (low + high) >>> 1;
+                if (indexSeqs[mid] <= seq) {
+                    entry = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return entry <= 0 ? 0 : indexOffsets[entry - 1];
+        }
+
+        synchronized long firstSeq() {
+            return indexSize == 0 ? Long.MAX_VALUE : indexSeqs[0];
+        }
+    }
+
+    // Positions of a room's most recent records, oldest first
+    private static final class RoomHistory {
+        private final long[] positions;
+        private int next;
+        private int size;
+
+        RoomHistory(int capacity) {
+            positions = new long[capacity];
+        }
+
+        synchronized void add(long position) {
+            positions[next] = position;
+            next = (next + 1) % positions.length;
+            size = Math.min(size + 1, positions.length);
+        }
+
+        synchronized long newest() {
+            return positions[Math.floorMod(next - 1, positions.length)];
+        }
+
+        synchronized long[] last(int count) {
+            int n = Math.min(count, size);
+            long[] result = new long[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = positions[Math.floorMod(next - n + i, positions.length)];
+            }
+            return result;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long fsyncMillis;
+    private final int historyPerRoom;
+    private final ChatServer server;
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, RoomHistory> histories = new HashMap<>();
+    // Retired segments whose files are still there: Windows will not delete a mapped file, and
+    // the mapping only goes once its buffer is garbage collected. Writer-owned.
+    private final List<Path> undeleted = new ArrayList<>();
+    private final BlockingQueue<Entry> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private Segment current;
+    private long lastSeq;
+    private int maxSenderId;
+    private Thread writer;
+    private volatile boolean running = true;
+
+    MessageJournal(ServerConfig config, ChatServer server) {
+        this.directory = Paths.get(config.getJournalDir());
+        this.segmentBytes = config.getJournalSegmentBytes();
+        this.maxSegments = config.getJournalMaxSegments();
+        this.fsyncMillis = config.getJournalFsyncMillis();
+        this.historyPerRoom = Math.max(1, config.getReplayOnJoin());
+        this.server = server;
+        this.queue = new ArrayBlockingQueue<>(config.getJournalQueueCapacity());
+    }
+
+    // Maps the existing segments, rebuilds the indexes and starts the writer
+    void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int number = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(number, file, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            recover(segment);
+            segments.put(number, segment);
+        }
+        current = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        writer = new Thread(this::writeLoop, "chat-journal");
+        writer.setDaemon(true);
+        writer.start();
+        server.log("Journal opened in " + directory + ": " + segments.size() + " segments, last seq " + lastSeq);
+    }
+
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    int getMaxSenderId() {
+        return maxSenderId;
+    }
+
+    // Called while broadcasting; never blocks. A full queue loses the message from history only.
+    void append(String room, String sender, ChatMessage message) {
+        if (!queue.offer(new Entry(room, sender, message))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    // The room's last `count` journaled messages, oldest first. The newest messages may still be
+    // queued for the writer; see RecentMessages for those.
+    void replayRecent(String room, int count, RecordHandler handler) {
+        RoomHistory history;
+        synchronized (histories) {
+            history = histories.get(room);
+        }
+        if (history == null) {
+            return;
+        }
+        for (long position : history.last(count)) {
+            readAt(position, handler);
+        }
+    }
+
+    // The record at a position from readFrom(); false once retention has deleted it
+    boolean readAt(long position, RecordHandler handler) {
+        Segment segment = segments.get((int) (position >>> 32));
+        Entry entry = segment == null ? null : read(segment, (int) position);
+        if (entry == null) {
+            return false;
+        }
+        handler.accept(entry.room, entry.message);
+        return true;
+    }
+
+    // Follows the journal: hands over up to max records from position on, in journal order, and
+    // returns the position to continue from. Position 0 starts at the oldest record kept; a
+    // position in a deleted segment moves on to the oldest one kept.
+    long readFrom(long position, int max, PositionedHandler handler) {
+        Map.Entry<Integer, Segment> first = segments.ceilingEntry((int) (position >>> 32));
+        if (first == null) {
+            return position;
+        }
+        Segment segment = first.getValue();
+        int offset = segment.number == (int) (position >>> 32) ? (int) position : 0;
+        for (int count = 0; count < max;) {
+            if (offset < segment.limit) {
+                int length = segment.buffer.getInt(offset);
+                Entry entry = read(segment, offset);
+                if (entry != null) {
+                    handler.accept((long) segment.number << 32 | offset, entry.room, entry.sender, entry.message);
+                }
+                offset += 4 + length;
+                count++;
+                continue;
+            }
+            Map.Entry<Integer, Segment> next = segments.higherEntry(segment.number);
+            if (next == null) {
+                break;
+            }
+            if (offset < segment.limit) {
+                continue; // its last record landed after the check above; now it is complete
+            }
+            segment = next.getValue();
+            offset = 0;
+        }
+        return (long) segment.number << 32 | offset;
+    }
+
+    // Where the oldest record kept is; positions before it belong to deleted segments
+    long getOldestPosition() {
+        Map.Entry<Integer, Segment> first = segments.firstEntry();
+        return first == null ? 0 : (long) first.getKey() << 32;
+    }
+
+    // Up to max retained messages with seq > afterSeq, in journal order, and how many there were;
+    // room null means all rooms. The scan stops as soon as max have been handed over.
+    int replaySince(long afterSeq, String room, int max, RecordHandler handler) {
+        Integer start = null;
+        for (Segment segment : segments.descendingMap().values()) {
+            start = segment.number;
+            if (segment.firstSeq() <= afterSeq) {
+                break;
+            }
+        }
+        if (start == null) {
+            return 0;
+        }
+        int count = 0;
+        boolean first = true;
+        for (Segment segment : segments.tailMap(start, true).values()) {
+            int offset = first ? segment.offsetBefore(afterSeq) : 0;
+            first = false;
+            int limit = segment.limit;
+            while (offset < limit) {
+                int length = segment.buffer.getInt(offset);
+                Entry entry = read(segment, offset);
+                if (entry != null && entry.message.getSeq() > afterSeq && (room == null || room.equals(entry.room))) {
+                    handler.accept(entry.room, entry.message);
+                    if (++count == max) {
+                        return count;
+                    }
+                }
+                offset += 4 + length;
+            }
+        }
+        return count;
+    }
+
+    // Writes out what is queued, forces it to disk and stops the writer
+    void close() {
+        running = false;
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                server.log(ServerLog.Level.WARN, "Error closing journal segment: " + e.getMessage());
+            }
+        }
+        if (dropped.get() > 0) {
+            server.log(ServerLog.Level.WARN, "Journal queue was full, " + dropped.get() + " messages not journaled");
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        long lastForce = System.nanoTime();
+        boolean dirty = false;
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = running ? queue.poll(fsyncMillis, TimeUnit.MILLISECONDS) : queue.poll();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, 1023);
+                    for (Entry entry : batch) {
+                        write(entry);
+                    }
+                    batch.clear();
+                    dirty = true;
+                }
+            } catch (InterruptedException e) {
+                // close() asks us to drain and stop
+            } catch (IOException e) {
+                server.log(ServerLog.Level.ERROR, "Journal write failed: " + e.getMessage());
+            }
+            if (dirty && (!running || System.nanoTime() - lastForce >= TimeUnit.MILLISECONDS.toNanos(fsyncMillis))) {
+                current.buffer.force();
+                lastForce = System.nanoTime();
+                dirty = false;
+            }
+        }
+        if (dirty) {
+            current.buffer.force();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        ChatMessage message = entry.message;
+        byte[] room = entry.room.getBytes(StandardCharsets.UTF_8);
+        byte[] sender = entry.sender.getBytes(StandardCharsets.UTF_8);
+        byte[] body = message.getBody().getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER_BYTES + room.length + sender.length + body.length;
+        if (4 + length > segmentBytes || room.length > Short.MAX_VALUE || sender.length > Short.MAX_VALUE) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Segment segment = current;
+        int offset = segment.limit;
+        if (offset + 4 + length > segment.buffer.capacity()) {
+            segment = roll();
+            offset = 0;
+        }
+        ByteBuffer view = segment.writeView;
+        view.position(offset + 4);
+        view.putLong(message.getSeq());
+        view.putLong(message.getTimestamp());
+        view.putInt(message.getSenderId());
+        view.put(message.getType().getCode());
+        view.putShort((short) room.length);
+        view.putShort((short) sender.length);
+        view.put(room);
+        view.put(sender);
+        view.put(body);
+        // The length goes in last, so a torn write reads as the end of the journal
+        view.putInt(offset, length);
+        segment.limit = offset + 4 + length;
+        indexRecord(segment, offset, entry.room, message);
+    }
+
+    private void indexRecord(Segment segment, int offset, String room, ChatMessage message) {
+        if (segment.records++ % INDEX_EVERY == 0) {
+            segment.index(message.getSeq(), offset);
+        }
+        RoomHistory history;
+        synchronized (histories) {
+            history = histories.computeIfAbsent(room, r -> new RoomHistory(historyPerRoom));
+        }
+        history.add((long) segment.number << 32 | offset);
+        lastSeq = Math.max(lastSeq, message.getSeq());
+        maxSenderId = Math.max(maxSenderId, message.getSenderId());
+    }
+
+    // Never fails for the sake of retention: a segment that cannot be deleted yet is tried again
+    // at the next roll, and the record that caused the roll is still written
+    private Segment roll() throws IOException {
+        current.buffer.force();
+        current = createSegment(current.number + 1);
+        undeleted.removeIf(MessageJournal::delete);
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            try {
+                oldest.channel.close();
+            } catch (IOException e) {
+                server.log(ServerLog.Level.WARN, "Error closing journal segment: " + e.getMessage());
+            }
+            if (!delete(oldest.path)) {
+                server.log(ServerLog.Level.WARN, "Journal segment " + oldest.path.getFileName()
+                        + " is still mapped, deleting it at a later roll");
+                undeleted.add(oldest.path);
+            }
+        }
+        // A room whose records are all gone has nothing left to replay; rooms come and go with
+        // their names, so the map would otherwise grow for as long as the server runs
+        int retained = segments.firstKey();
+        synchronized (histories) {
+            histories.values().removeIf(history -> (int) (history.newest() >>> 32) < retained);
+        }
+        return current;
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Segment createSegment(int number) throws IOException {
+        Path path = directory.resolve(String.format("%010d", number) + SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // Mapping past the end grows the file; the new space reads as zeros
+        Segment segment = new Segment(number, path, channel,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        segments.put(number, segment);
+        return segment;
+    }
+
+    // Finds the end of the written part and rebuilds the indexes from the records
+    private void recover(Segment segment) {
+        int offset = 0;
+        int capacity = segment.buffer.capacity();
+        while (offset + 4 <= capacity) {
+            int length = segment.buffer.getInt(offset);
+            if (length < RECORD_HEADER_BYTES || offset + 4 + length > capacity) {
+                break;
+            }
+            Entry entry = read(segment, offset);
+            if (entry == null) {
+                break;
+            }
+            indexRecord(segment, offset, entry.room, entry.message);
+            offset += 4 + length;
+            segment.limit = offset;
+        }
+    }
+
+    // Null if the bytes at offset are not a valid record
+    private static Entry read(Segment segment, int offset) {
+        ByteBuffer view = segment.buffer.duplicate();
+        int length = view.getInt(offset);
+        view.position(offset + 4);
+        long seq = view.getLong();
+        long timestamp = view.getLong();
+        int senderId = view.getInt();
+        byte code = view.get();
+        int roomLength = view.getShort();
+        int senderLength = view.getShort();
+        int bodyLength = length - RECORD_HEADER_BYTES - roomLength - senderLength;
+        if (roomLength < 0 || senderLength < 0 || bodyLength < 0) {
+            return null;
+        }
+        byte[] room = new byte[roomLength];
+        byte[] sender = new byte[senderLength];
+        byte[] body = new byte[bodyLength];
+        view.get(room);
+        view.get(sender);
+        view.get(body);
+        try {
+            return new Entry(new String(room, StandardCharsets.UTF_8), new String(sender, StandardCharsets.UTF_8),
+                    new ChatMessage(ChatMessage.Type.fromCode(code), senderId, seq, timestamp,
+                            new String(body, StandardCharsets.UTF_8)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
\ No newline at end of file
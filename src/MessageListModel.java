@@ -0,0 +1,79 @@
+import javax.swing.AbstractListModel;
+import java.util.List;
+
+// The chat view's rows, oldest first, in a ring of at most `scrollback` entries: once full, each
+// new row pushes out the oldest. EDT only.
+class MessageListModel extends AbstractListModel<MessageListModel.Entry> {
+    // One row: a message bubble or a centered system line. The layout fields belong to
+    // MessageBubbleRenderer, which wraps each row once per list width instead of on every paint.
+    static final class Entry {
+        final boolean system;
+        final String sender;
+        final String text;
+        final String timestamp;
+        final boolean mine;
+        final boolean isPrivate;
+        int layoutWidth = -1;
+        String[] lines;
+        int bubbleWidth;
+        int height;
+
+        private Entry(boolean system, String sender, String text, String timestamp, boolean mine,
+                boolean isPrivate) {
+            this.system = system;
+            this.sender = sender;
+            this.text = text;
+            this.timestamp = timestamp;
+            this.mine = mine;
+            this.isPrivate = isPrivate;
+        }
+
+        static Entry bubble(String sender, String text, String timestamp, boolean mine, boolean isPrivate) {
+            return new Entry(false, sender, text, timestamp, mine, isPrivate);
+        }
+
+        static Entry system(String text) {
+            return new Entry(true, null, text, null, false, false);
+        }
+    }
+
+    private final Entry[] entries;
+    private int head;
+    private int size;
+
+    MessageListModel(int scrollback) {
+        entries = new Entry[Math.max(1, scrollback)];
+    }
+
+    // Appends a batch with at most two list events, however many rows it has
+    void addAll(List<Entry> rows) {
+        int skip = Math.max(0, rows.size() - entries.length);
+        int overflow = Math.max(0, size + rows.size() - skip - entries.length);
+        if (overflow > 0) {
+            for (int i = 0; i < overflow; i++) {
+                entries[(head + i) % entries.length] = null;
+            }
+            head = (head + overflow) % entries.length;
+            size -= overflow;
+            fireIntervalRemoved(this, 0, overflow - 1);
+        }
+        int first = size;
+        for (int i = skip; i < rows.size(); i++) {
+            entries[(head + size) % entries.length] = rows.get(i);
+            size++;
+        }
+        if (size > first) {
+            fireIntervalAdded(this, first, size - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Entry getElementAt(int index) {
+        return entries[(head + index) % entries.length];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hands out unique names: the proposed one if free, otherwise the base name plus the lowest
+// suffix not in use ("Ahmed", "Ahmed1", "Ahmed2", ...). Each base name keeps its own counter and
+// the suffixes freed by departed clients, so a storm of identical logins does not probe
+// "Ahmed1".."AhmedN" in turn; a name is claimed with putIfAbsent, so no two owners can share it.
+// Per-base state only lives while some suffix of that base is handed out.
+class NameAllocator<T> {
+    private static final class Claim<T> {
+        final T owner;
+        final String base;
+        final int suffix;
+
+        Claim(T owner, String base, int suffix) {
+            this.owner = owner;
+            this.base = base;
+            this.suffix = suffix;
+        }
+    }
+
+    // Only touched inside ConcurrentHashMap.compute() for its base, which serializes access
+    private static final class Suffixes {
+        private final PriorityQueue<Integer> freed = new PriorityQueue<>();
+        private int next = 1;
+        private int outstanding;
+
+        int take() {
+            outstanding++;
+            Integer reused = freed.poll();
+            return reused != null ? reused : next++;
+        }
+
+        // Returns true when nothing is handed out any more and the state can go
+        boolean give(int suffix) {
+            outstanding--;
+            freed.add(suffix);
+            return outstanding == 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Claim<T>> names = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Suffixes> bases = new ConcurrentHashMap<>();
+
+    String allocate(String base, T owner) {
+        if (names.putIfAbsent(base, new Claim<>(owner, base, 0)) == null) {
+            return base;
+        }
+        // Suffixes taken by a client that literally logged in as e.g. "Ahmed1" go back after we succeed
+        List<Integer> skipped = new ArrayList<>(0);
+        try {
+            while (true) {
+                int suffix = takeSuffix(base);
+                String name = base + suffix;
+                if (names.putIfAbsent(name, new Claim<>(owner, base, suffix)) == null) {
+                    return name;
+                }
+                skipped.add(suffix);
+            }
+        } finally {
+            for (int suffix : skipped) {
+                giveSuffix(base, suffix);
+            }
+        }
+    }
+
+    T get(String name) {
+        Claim<T> claim = names.get(name);
+        return claim == null ? null : claim.owner;
+    }
+
+    // Frees the name if owner still holds it
+    void release(String name, T owner) {
+        Claim<T> claim = names.get(name);
+        if (claim != null && claim.owner == owner && names.remove(name, claim) && claim.suffix > 0) {
+            giveSuffix(claim.base, claim.suffix);
+        }
+    }
+
+    // Hands the name from one owner to another, e.g. a reconnected client's new connection
+    boolean transfer(String name, T from, T to) {
+        Claim<T> claim = names.get(name);
+        return claim != null && claim.owner == from
+                && names.replace(name, claim, new Claim<>(to, claim.base, claim.suffix));
+    }
+
+    void clear() {
+        names.clear();
+        bases.clear();
+    }
+
+    private int takeSuffix(String base) {
+        int[] suffix = new int[1];
+        bases.compute(base, (key, suffixes) -> {
+            if (suffixes == null) {
+                suffixes = new Suffixes();
+            }
+            suffix[0] = suffixes.take();
+            return suffixes;
+        });
+        return suffix[0];
+    }
+
+    private void giveSuffix(String base, int suffix) {
+        bases.computeIfPresent(base, (key, suffixes) -> suffixes.give(suffix) ? null : suffixes);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Selector-based engine: one acceptor thread plus a small fixed set of event loops,
+// each multiplexing many non-blocking connections. Speaks the same line protocol as
+// the thread-per-client engine, so ChatServer's protocol methods drive both.
+class NioChatEngine {
+    private final ChatServer server;
+    private final ServerConfig config;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private volatile boolean running;
+
+    NioChatEngine(ChatServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    void start() throws IOException {
+        serverChannel = server.openServerChannel();
+        running = true;
+
+        loops = new EventLoop[config.getEventLoops()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "chat-nio-" + i);
+            loops[i].thread = thread;
+            thread.start();
+        }
+
+        new Thread(this::acceptLoop, "chat-nio-accept").start();
+    }
+
+    void stop() throws IOException {
+        running = false;
+        // Null when start() could not bind
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (loops != null) {
+            for (EventLoop loop : loops) {
+                loop.execute(loop::shutdown);
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                server.configureSocket(channel);
+                server.getMetrics().recordAccept();
+                EventLoop loop = loops[next++ % loops.length];
+                NioConnection connection = new NioConnection(channel, loop);
+                server.addConnection(connection);
+                loop.execute(connection::register);
+            } catch (IOException e) {
+                if (running) {
+                    server.log(ServerLog.Level.WARN, "Error accepting client: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Connections with newly queued output, written once at the end of each select pass
+        private final ArrayDeque<NioConnection> dirty = new ArrayDeque<>();
+        // Reads are handled synchronously on the loop, so one buffer serves every connection
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(config.getReadBufferSize());
+        private Thread thread;
+        private boolean open = true;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            while (open) {
+                try {
+                    selector.select();
+                    runTasks();
+                    if (!open) {
+                        break;
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.closeNow();
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                    }
+                    NioConnection connection;
+                    while ((connection = dirty.poll()) != null) {
+                        connection.flush();
+                    }
+                } catch (IOException | ClosedSelectorException e) {
+                    server.log(ServerLog.Level.WARN, "Event loop error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void shutdown() {
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).closeNow();
+            }
+            open = false;
+            try {
+                selector.close();
+            } catch (IOException e) {
+                server.log(ServerLog.Level.WARN, "Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private class NioConnection extends ChatServer.Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final OutboundQueue<EncodedMessage> outbound = new OutboundQueue<>(
+                config.getOutboundQueueCapacity(), config.getOverflowPolicy(), EncodedMessage::release);
+        // Messages taken off the queue for the current gathering write; a partly written batch
+        // is finished before anything else is taken from the queue
+        private final EncodedMessage[] inFlight = new EncodedMessage[config.getWriteBatchLimit()];
+        private final ByteBuffer[] inFlightViews = new ByteBuffer[inFlight.length];
+        private int inFlightHead;
+        private int inFlightCount;
+        private boolean writeBlocked;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private SelectionKey key;
+        // Bytes of the line or frame still being received
+        private byte[] input = new byte[256];
+        private int inputLength;
+        private boolean closed;
+
+        NioConnection(SocketChannel channel, EventLoop loop) {
+            super(server.getBufferPool(), server.nextConnectionId());
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                sendLine("SUBMIT_NAME");
+            } catch (IOException e) {
+                server.log(ServerLog.Level.WARN, "Error registering client: " + e.getMessage());
+                closeNow();
+            }
+        }
+
+        @Override
+        void enqueue(EncodedMessage message, boolean handshake) {
+            message.retain();
+            if (handshake) {
+                outbound.offerHandshake(message);
+            } else if (!outbound.offer(message)) {
+                server.log(ServerLog.Level.WARN, "Client " + clientName + " is not reading, disconnecting ("
+                        + outbound.getDropped() + " messages dropped)");
+                outbound.close();
+                close();
+                return;
+            }
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (loop.inLoop()) {
+                    loop.dirty.add(this);
+                } else {
+                    loop.execute(() -> loop.dirty.add(this));
+                }
+            }
+        }
+
+        // Not counting a batch that is partly written, which only the event loop can see
+        @Override
+        int queueDepth() {
+            return outbound.size();
+        }
+
+        @Override
+        public void close() {
+            if (loop.inLoop()) {
+                closeNow();
+            } else {
+                loop.execute(this::closeNow);
+            }
+        }
+
+        void flush() {
+            flushScheduled.set(false);
+            if (closed || key == null || writeBlocked) {
+                return;
+            }
+            try {
+                if (!writePending()) {
+                    // Socket buffer full: resume when the selector reports the channel writable
+                    writeBlocked = true;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                closeNow();
+            }
+        }
+
+        void onWritable() {
+            writeBlocked = false;
+            key.interestOps(SelectionKey.OP_READ);
+            flush();
+        }
+
+        private boolean writePending() throws IOException {
+            while (true) {
+                if (inFlightCount == 0) {
+                    inFlightHead = 0;
+                    EncodedMessage message;
+                    while (inFlightCount < inFlight.length && (message = outbound.poll()) != null) {
+                        inFlight[inFlightCount] = message;
+                        inFlightViews[inFlightCount++] = message.view();
+                    }
+                    if (inFlightCount == 0) {
+                        return true;
+                    }
+                }
+                long written = channel.write(inFlightViews, inFlightHead, inFlightCount);
+                int completed = 0;
+                while (inFlightCount > 0 && !inFlightViews[inFlightHead].hasRemaining()) {
+                    releaseInFlightHead();
+                    completed++;
+                }
+                server.getWriteStats().record(completed, written);
+                if (inFlightCount > 0) {
+                    return false;
+                }
+            }
+        }
+
+        private void releaseInFlightHead() {
+            inFlight[inFlightHead].release();
+            inFlight[inFlightHead] = null;
+            inFlightViews[inFlightHead] = null;
+            inFlightHead++;
+            inFlightCount--;
+        }
+
+        void onReadable(ByteBuffer buffer) {
+            try {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    closeNow();
+                    return;
+                }
+                server.getMetrics().recordBytesIn(read);
+                buffer.flip();
+                // The framing can switch right after the handshake line, mid-buffer
+                while (buffer.hasRemaining() && !closed) {
+                    if (getFraming() == ChatProtocol.Framing.BINARY) {
+                        readFrames(buffer);
+                    } else {
+                        readLine(buffer);
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                server.log(ServerLog.Level.WARN, "Error with client " + clientName + ": " + e.getMessage());
+                closeNow();
+            }
+        }
+
+        private void readLine(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    onLine(decodeLine());
+                    return;
+                }
+                if (inputLength == config.getMaxLineLength()) {
+                    server.log(ServerLog.Level.WARN,
+                            "Client " + clientName + " exceeded max line length, disconnecting");
+                    closeNow();
+                    return;
+                }
+                ensureInputCapacity(inputLength + 1);
+                input[inputLength++] = b;
+            }
+        }
+
+        private void readFrames(ByteBuffer buffer) {
+            while (buffer.hasRemaining() && !closed) {
+                int frameEnd = 4;
+                if (inputLength >= 4) {
+                    int length = ChatProtocol.readInt(input, 0);
+                    if (length < ChatProtocol.FRAME_HEADER_BYTES || length > config.getMaxLineLength()) {
+                        server.log(ServerLog.Level.WARN,
+                                "Client " + clientName + " sent an invalid frame length, disconnecting");
+                        closeNow();
+                        return;
+                    }
+                    frameEnd += length;
+                }
+                int chunk = Math.min(frameEnd - inputLength, buffer.remaining());
+                ensureInputCapacity(inputLength + chunk);
+                buffer.get(input, inputLength, chunk);
+                inputLength += chunk;
+                if (inputLength == frameEnd && frameEnd > 4) {
+                    inputLength = 0;
+                    onMessage(ChatProtocol.decodeFrame(input, 4, frameEnd - 4));
+                }
+            }
+        }
+
+        private void ensureInputCapacity(int capacity) {
+            if (capacity > input.length) {
+                input = Arrays.copyOf(input, Math.max(capacity, input.length * 2));
+            }
+        }
+
+        private String decodeLine() {
+            int length = inputLength;
+            if (length > 0 && input[length - 1] == '\r') {
+                length--;
+            }
+            inputLength = 0;
+            return new String(input, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private void onLine(String line) {
+            if (clientName == null) {
+                clientName = server.completeHandshake(this, line);
+                server.clientJoined(this);
+            } else {
+                onMessage(ChatProtocol.fromClientLine(line));
+            }
+        }
+
+        private void onMessage(ChatMessage message) {
+            if (!server.handleMessage(this, message)) {
+                closeNow();
+            }
+        }
+
+        // Runs on the event loop; pushes out whatever is still queued before closing
+        void closeNow() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.close();
+            if (key != null) {
+                try {
+                    writePending();
+                } catch (IOException e) {
+                    // Peer is already gone; nothing left to deliver
+                }
+                key.cancel();
+            }
+            while (inFlightCount > 0) {
+                releaseInFlightHead();
+            }
+            EncodedMessage leftover;
+            while ((leftover = outbound.poll()) != null) {
+                leftover.release();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                server.log(ServerLog.Level.WARN, "Error closing client connection: " + e.getMessage());
+            }
+            server.clientLeft(this);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,41 @@
+// A message on its way to one or more clients. Each framing is encoded at most once, on first
+// use, and the encoding is then shared by every recipient using that framing. Only the thread
+// doing the fan-out touches it, so the lazy encoding needs no locking.
+class OutboundMessage {
+    private final ChatMessage message;
+    private final BufferPool pool;
+    private EncodedMessage text;
+    private EncodedMessage binary;
+
+    OutboundMessage(ChatMessage message, BufferPool pool) {
+        this.message = message;
+        this.pool = pool;
+    }
+
+    ChatMessage getMessage() {
+        return message;
+    }
+
+    EncodedMessage encodedFor(ChatProtocol.Framing framing) {
+        if (framing == ChatProtocol.Framing.BINARY) {
+            if (binary == null) {
+                binary = EncodedMessage.encodeFrame(message, pool);
+            }
+            return binary;
+        }
+        if (text == null) {
+            text = EncodedMessage.encodeLine(ChatProtocol.toLegacyLine(message), pool);
+        }
+        return text;
+    }
+
+    // Drops the fan-out's own references; recipients hold theirs until written
+    void release() {
+        if (text != null) {
+            text.release();
+        }
+        if (binary != null) {
+            binary.release();
+        }
+    }
+}
\ No newline at end of file
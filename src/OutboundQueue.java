@@ -0,0 +1,144 @@
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Bounded per-connection queue of messages waiting to be written. Broadcasting threads only
+// ever enqueue; the connection's own writer drains it, so a client that stops reading fills
+// its own queue instead of blocking the sender. What happens on overflow is up to the policy.
+class OutboundQueue<T> {
+    private final ArrayDeque<T> items = new ArrayDeque<>();
+    // The handshake (protocol reply, assigned name): taken before items and never dropped, since
+    // the client cannot make sense of the rest without it. It is queued before anything else, so
+    // going first keeps the order.
+    private final ArrayDeque<T> handshake = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int capacity;
+    private final ServerConfig.OverflowPolicy policy;
+    private final Consumer<T> onDrop;
+    private long dropped;
+    private boolean closed;
+
+    OutboundQueue(int capacity, ServerConfig.OverflowPolicy policy, Consumer<T> onDrop) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.onDrop = onDrop;
+    }
+
+    // Returns false when the queue is full and the policy says to disconnect the client
+    boolean offer(T item) {
+        T evicted = null;
+        lock.lock();
+        try {
+            if (closed) {
+                evicted = item;
+                return true;
+            }
+            if (items.size() >= capacity) {
+                dropped++;
+                switch (policy) {
+                    case DROP_OLDEST:
+                        evicted = items.pollFirst();
+                        break;
+                    case DROP_NEWEST:
+                        evicted = item;
+                        return true;
+                    default:
+                        evicted = item;
+                        return false;
+                }
+            }
+            items.addLast(item);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+            if (evicted != null && onDrop != null) {
+                onDrop.accept(evicted);
+            }
+        }
+    }
+
+    // Queues part of the handshake, outside the capacity and the overflow policy
+    void offerHandshake(T item) {
+        lock.lock();
+        try {
+            if (!closed) {
+                handshake.addLast(item);
+                notEmpty.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (onDrop != null) {
+            onDrop.accept(item);
+        }
+    }
+
+    T poll() {
+        lock.lock();
+        try {
+            return handshake.isEmpty() ? items.pollFirst() : handshake.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until something is queued, then moves up to max items into sink.
+    // Returns -1 once the queue is closed and empty.
+    int drainTo(Collection<? super T> sink, int max) throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && handshake.isEmpty()) {
+                if (closed) {
+                    return -1;
+                }
+                notEmpty.await();
+            }
+            int count = 0;
+            while (count < max && !handshake.isEmpty()) {
+                sink.add(handshake.pollFirst());
+                count++;
+            }
+            while (count < max && !items.isEmpty()) {
+                sink.add(items.pollFirst());
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stops accepting new items; the writer still drains what is already queued
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return items.size() + handshake.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
\ No newline at end of file
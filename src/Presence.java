@@ -0,0 +1,56 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Who is online, maintained one change at a time. Listeners are told about each name that comes
+// or goes, so nobody has to rebuild the whole list on every join. A name is only reused after its
+// removal has been announced (ChatServer frees it in NameAllocator afterwards), so listeners
+// always see a name's changes in order.
+class Presence {
+    interface Listener {
+        // Called on the thread that made the change; keep it short
+        void presenceChanged(String name, boolean online);
+    }
+
+    private final Set<String> online = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void add(String name) {
+        if (online.add(name)) {
+            fire(name, true);
+        }
+    }
+
+    void remove(String name) {
+        if (online.remove(name)) {
+            fire(name, false);
+        }
+    }
+
+    void clear() {
+        for (String name : online) {
+            remove(name);
+        }
+    }
+
+    // Live read-only view, not a copy
+    Set<String> names() {
+        return Collections.unmodifiableSet(online);
+    }
+
+    int size() {
+        return online.size();
+    }
+
+    private void fire(String name, boolean isOnline) {
+        for (Listener listener : listeners) {
+            listener.presenceChanged(name, isOnline);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads the chat protocol straight from a socket stream: '\n'-terminated UTF-8 lines during
+// the handshake and for text clients, length-prefixed frames once binary framing is agreed.
+// Both share one buffer, so bytes that arrive right behind the handshake line are not lost.
+// Unlike BufferedReader it takes no monitor around the blocking read, so a virtual thread
+// parked here never pins its carrier, and anything longer than maxLength fails instead of
+// growing without bound.
+class ProtocolReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[4096];
+    private final int maxLength;
+    private int position;
+    private int limit;
+    private byte[] line = new byte[128];
+    private int lineLength;
+
+    ProtocolReader(InputStream in, int maxLength) {
+        this.in = in;
+        this.maxLength = maxLength;
+    }
+
+    // Returns null at end of stream, like BufferedReader.readLine()
+    String readLine() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                if (lineLength == 0) {
+                    return null;
+                }
+                return takeLine();
+            }
+            while (position < limit) {
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    return takeLine();
+                }
+                append(b);
+            }
+        }
+    }
+
+    // Returns null at end of stream between frames
+    ChatMessage readFrame() throws IOException {
+        if (position == limit && !fill()) {
+            return null;
+        }
+        lineLength = 0;
+        readFully(4);
+        int length = ChatProtocol.readInt(line, 0);
+        if (length < ChatProtocol.FRAME_HEADER_BYTES || length > maxLength) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        lineLength = 0;
+        readFully(length);
+        lineLength = 0;
+        return ChatProtocol.decodeFrame(line, 0, length);
+    }
+
+    private void readFully(int count) throws IOException {
+        while (lineLength < count) {
+            if (position == limit && !fill()) {
+                throw new EOFException("Connection closed mid-frame");
+            }
+            int chunk = Math.min(count - lineLength, limit - position);
+            ensureCapacity(lineLength + chunk);
+            System.arraycopy(buffer, position, line, lineLength, chunk);
+            position += chunk;
+            lineLength += chunk;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private void append(byte b) throws IOException {
+        if (lineLength == maxLength) {
+            throw new IOException("Line exceeds " + maxLength + " bytes");
+        }
+        ensureCapacity(lineLength + 1);
+        line[lineLength++] = b;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > line.length) {
+            line = Arrays.copyOf(line, Math.max(capacity, Math.min(line.length * 2, maxLength)));
+        }
+    }
+
+    private String takeLine() {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The last few thousand messages the server sent, room and private alike, so a client that
+// reconnects within the grace period gets exactly what it missed without touching the journal.
+// Sequence numbers are only roughly ordered across rooms, so coverage is judged by the highest
+// seq ever pushed out rather than by the oldest one still held.
+//
+// Broadcasts add from inside their room's lock, so adding takes no lock of its own: each add
+// claims the next slot with one atomic increment. Readers walk back from the newest slot and may
+// see a slot that is being refilled; the caller holds the locks that keep the entries it cares
+// about from changing meanwhile (see ChatServer.fillGap()). Everything a client in a room is sent,
+// private messages included, is added under that room's lock, so those entries are in seq order
+// and a reader stops as soon as it has what it asked for.
+class RecentMessages {
+    static final class Entry {
+        // Null for a private message
+        final String room;
+        final String from;
+        final String to;
+        final ChatMessage message;
+
+        private Entry(String room, String from, String to, ChatMessage message) {
+            this.room = room;
+            this.from = from;
+            this.to = to;
+            this.message = message;
+        }
+
+        // Whether a client in room, going by name, would have received it
+        boolean isFor(String room, String name) {
+            return this.room != null ? this.room.equals(room) : name.equals(from) || name.equals(to);
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong evictedSeq = new AtomicLong();
+
+    RecentMessages(int capacity) {
+        entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    void addRoom(String room, ChatMessage message) {
+        add(new Entry(room, null, null, message));
+    }
+
+    void addPrivate(String from, String to, ChatMessage message) {
+        add(new Entry(null, from, to, message));
+    }
+
+    private void add(Entry entry) {
+        int slot = slot(next.getAndIncrement());
+        // The evicted seq goes up before the entry disappears, so a reader that misses the
+        // entry sees the higher seq afterwards
+        for (Entry evicted = entries.get(slot);; evicted = entries.get(slot)) {
+            if (evicted != null) {
+                evictedSeq.accumulateAndGet(evicted.message.getSeq(), Math::max);
+            }
+            if (entries.compareAndSet(slot, evicted, entry)) {
+                return;
+            }
+        }
+    }
+
+    // What a client in room, going by name, was sent after afterSeq, in seq order, or null if
+    // some of it is gone
+    List<Entry> since(long afterSeq, String room, String name) {
+        List<Entry> found = new ArrayList<>();
+        long newest = next.get() - 1;
+        for (long i = newest; i >= 0 && i > newest - entries.length(); i--) {
+            Entry entry = entries.get(slot(i));
+            if (entry != null && entry.isFor(room, name)) {
+                if (entry.message.getSeq() <= afterSeq) {
+                    break;
+                }
+                found.add(entry);
+            }
+        }
+        if (evictedSeq.get() > afterSeq) {
+            return null;
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    // The room's last count messages of a type still held, in seq order
+    List<ChatMessage> lastInRoom(String room, ChatMessage.Type type, int count) {
+        List<ChatMessage> found = new ArrayList<>();
+        long newest = next.get() - 1;
+        for (long i = newest; i >= 0 && i > newest - entries.length() && found.size() < count; i--) {
+            Entry entry = entries.get(slot(i));
+            if (entry != null && room.equals(entry.room) && entry.message.getType() == type) {
+                found.add(entry.message);
+            }
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    private int slot(long index) {
+        return (int) Math.floorMod(index, (long) entries.length());
+    }
+
+    void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+        next.set(0);
+        evictedSeq.set(0);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Appends text to a log file and rolls it once it would pass maxBytes: chat-server.log becomes
+// chat-server.log.1, the old .1 becomes .2 and so on, keeping at most `files` old files.
+class RollingLogFile {
+    private final Path path;
+    private final long maxBytes;
+    private final int files;
+    private OutputStream out;
+    private long size;
+
+    RollingLogFile(String path, long maxBytes, int files) {
+        this.path = Paths.get(path);
+        this.maxBytes = maxBytes;
+        this.files = Math.max(1, files);
+    }
+
+    synchronized void append(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null) {
+                open();
+            }
+            if (size > 0 && size + bytes.length > maxBytes) {
+                roll();
+            }
+            out.write(bytes);
+            out.flush();
+            size += bytes.length;
+        } catch (IOException e) {
+            System.err.println("Error writing log file " + path + ": " + e.getMessage());
+        }
+    }
+
+    synchronized void close() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing log file " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void open() throws IOException {
+        out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(path);
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        out = null;
+        for (int i = files - 1; i >= 1; i--) {
+            Path older = rolled(i);
+            if (Files.exists(older)) {
+                Files.move(older, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    private Path rolled(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+}
\ No newline at end of file
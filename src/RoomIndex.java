@@ -0,0 +1,81 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+// Room name -> members. A broadcast walks only its own room's members, so a busy room costs
+// nothing for clients elsewhere. Member sets are copy-on-write: joins and leaves are rare next
+// to fan-outs, which then iterate a snapshot without taking a lock. Empty rooms are removed.
+class RoomIndex<T> {
+    private final ConcurrentHashMap<String, CopyOnWriteArraySet<T>> rooms = new ConcurrentHashMap<>();
+
+    // 1-32 letters, digits, '-' or '_'
+    static boolean isValidName(String room) {
+        return room != null && room.matches("[A-Za-z0-9_-]{1,32}");
+    }
+
+    // Adding inside compute() keeps a concurrent leave from dropping the set we are adding to
+    void join(String room, T member) {
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = new CopyOnWriteArraySet<>();
+            }
+            members.add(member);
+            return members;
+        });
+    }
+
+    void leave(String room, T member) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(member);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    // Runs action on the room's members under the room's own lock, so actions on one room happen
+    // one at a time while other rooms go ahead in parallel. Does nothing for an empty room.
+    void withMembers(String room, Consumer<Set<T>> action) {
+        Set<T> members = rooms.get(room);
+        if (members != null) {
+            synchronized (members) {
+                action.accept(Collections.unmodifiableSet(members));
+            }
+        }
+    }
+
+    // Runs action under the locks of both rooms, taken in name order so that two callers cannot
+    // deadlock. A room that does not exist (or is null) has no lock and nothing broadcast in it.
+    void withRooms(String room, String other, Runnable action) {
+        if (room != null && other != null && room.compareTo(other) > 0) {
+            withRooms(other, room, action);
+            return;
+        }
+        Set<T> first = room == null ? null : rooms.get(room);
+        Set<T> second = other == null || other.equals(room) ? null : rooms.get(other);
+        locked(first, () -> locked(second, action));
+    }
+
+    private static void locked(Object lock, Runnable action) {
+        if (lock == null) {
+            action.run();
+        } else {
+            synchronized (lock) {
+                action.run();
+            }
+        }
+    }
+
+    // Room name -> member count, sorted by name
+    Map<String, Integer> sizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        rooms.forEach((name, members) -> sizes.put(name, members.size()));
+        return sizes;
+    }
+
+    void clear() {
+        rooms.clear();
+    }
+}
\ No newline at end of file
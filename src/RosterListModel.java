@@ -0,0 +1,112 @@
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A list of online names fed by presence deltas. Changes can arrive from any thread; they are
+// queued and applied on the EDT by flush(), so a burst of joins costs one list update per frame.
+// Names are unordered and removal swaps the last name into the gap, so each delta is O(1).
+class RosterListModel extends AbstractListModel<String> {
+    private final String prefix;
+    private final String placeholder;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> indexes = new HashMap<>();
+    // Latest state per name since the last flush; both guarded by pending
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    private boolean clearPending;
+
+    RosterListModel(String prefix, String placeholder) {
+        this.prefix = prefix;
+        this.placeholder = placeholder;
+    }
+
+    // Any thread
+    void presenceChanged(String name, boolean online) {
+        synchronized (pending) {
+            pending.put(name, online);
+        }
+    }
+
+    // Any thread; replaces the whole roster at the next flush
+    void reset(Iterable<String> online) {
+        synchronized (pending) {
+            pending.clear();
+            clearPending = true;
+            for (String name : online) {
+                pending.put(name, true);
+            }
+        }
+    }
+
+    // EDT only: applies what arrived since the last call and fires at most two list events
+    void flush() {
+        Map<String, Boolean> changes;
+        boolean clear;
+        synchronized (pending) {
+            if (pending.isEmpty() && !clearPending) {
+                return;
+            }
+            changes = new LinkedHashMap<>(pending);
+            clear = clearPending;
+            pending.clear();
+            clearPending = false;
+        }
+        int oldSize = getSize();
+        if (clear) {
+            names.clear();
+            indexes.clear();
+        }
+        changes.forEach((name, online) -> {
+            if (online) {
+                add(name);
+            } else {
+                remove(name);
+            }
+        });
+        int newSize = getSize();
+        if (newSize > oldSize) {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        } else if (newSize < oldSize) {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        }
+        if (Math.min(oldSize, newSize) > 0) {
+            fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+        }
+    }
+
+    // EDT only
+    int getOnlineCount() {
+        return names.size();
+    }
+
+    @Override
+    public int getSize() {
+        return names.isEmpty() ? 1 : names.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return names.isEmpty() ? placeholder : prefix + names.get(index);
+    }
+
+    private void add(String name) {
+        if (!indexes.containsKey(name)) {
+            indexes.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    private void remove(String name) {
+        Integer index = indexes.remove(name);
+        if (index == null) {
+            return;
+        }
+        String last = names.remove(names.size() - 1);
+        if (index < names.size()) {
+            names.set(index, last);
+            indexes.put(last, index);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps every client's roster of online users current. A client gets one USERS snapshot when it
+// joins and PRESENCE deltas after that. Changes are collected between ticks (latest state per
+// name) and go out as one delta per tick, so a login storm costs one message per client per tick
+// rather than one per login. Only binary clients get deltas; text clients could not parse them
+// and still see the "has joined/left" lines. Local views (the server window's user list) hear
+// about a tick's changes once, after the deltas.
+class RosterPublisher implements Presence.Listener {
+    private final Presence presence;
+    private final Collection<? extends ChatServer.Connection> clients;
+    private final BufferPool bufferPool;
+    // Guarded by itself; sending under the same lock keeps snapshots and deltas in order per client
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    private final List<Runnable> flushListeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-presence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    RosterPublisher(Presence presence, Collection<? extends ChatServer.Connection> clients, BufferPool bufferPool,
+            long tickMillis) {
+        this.presence = presence;
+        this.clients = clients;
+        this.bufferPool = bufferPool;
+        ticker.scheduleWithFixedDelay(this::flush, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void presenceChanged(String name, boolean online) {
+        synchronized (pending) {
+            pending.put(name, online);
+        }
+    }
+
+    // Sends the client a snapshot and includes it in deltas from now on. Deltas that overlap the
+    // snapshot are harmless: adding a present name or removing an absent one changes nothing.
+    void subscribe(ChatServer.Connection client) {
+        synchronized (pending) {
+            client.receivesRoster = true;
+            client.send(new ChatMessage(ChatMessage.Type.USERS, 0, 0, System.currentTimeMillis(),
+                    String.join("\n", presence.names())));
+        }
+    }
+
+    // Runs on the ticker after each tick that had changes
+    void addFlushListener(Runnable listener) {
+        flushListeners.add(listener);
+    }
+
+    void stop() {
+        ticker.shutdownNow();
+    }
+
+    private void flush() {
+        if (publish()) {
+            flushListeners.forEach(Runnable::run);
+        }
+    }
+
+    private boolean publish() {
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return false;
+            }
+            StringBuilder body = new StringBuilder();
+            pending.forEach((name, online) -> {
+                if (body.length() > 0) {
+                    body.append('\n');
+                }
+                body.append(online ? '+' : '-').append(name);
+            });
+            pending.clear();
+            OutboundMessage delta = new OutboundMessage(
+                    new ChatMessage(ChatMessage.Type.PRESENCE, 0, 0, System.currentTimeMillis(), body.toString()),
+                    bufferPool);
+            for (ChatServer.Connection client : clients) {
+                if (client.receivesRoster && client.getFraming() == ChatProtocol.Framing.BINARY) {
+                    client.send(delta);
+                }
+            }
+            delta.release();
+            return true;
+        }
+    }
+}
\ No newline at end of file
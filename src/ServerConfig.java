@@ -0,0 +1,457 @@
+import java.util.Locale;
+import java.util.Properties;
+
+public class ServerConfig {
+    public enum Engine {
+        THREAD, VIRTUAL, NIO
+    }
+
+    // What to do when a client's outbound queue is full
+    public enum OverflowPolicy {
+        DROP_OLDEST, DROP_NEWEST, DISCONNECT
+    }
+
+    private int port = 5001;
+    // Empty listens on every interface
+    private String bindAddress = "";
+    private int backlog;
+    private Engine engine = Engine.THREAD;
+    private int eventLoops = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private int readBufferSize = 8192;
+    private int maxLineLength = 64 * 1024;
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private boolean writeBatching = true;
+    private int maxWriteBatch = 64;
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize;
+    private int receiveBufferSize;
+    private boolean binaryFraming = true;
+    private String defaultRoom = "general";
+    private ServerLog.Level logLevel = ServerLog.Level.INFO;
+    private int logSampleEvery = 1;
+    private int logBufferSize = 8192;
+    private int logViewLines = 5000;
+    private String logFile = "chat-server.log";
+    private long logFileMaxBytes = 10L * 1024 * 1024;
+    private int logFiles = 5;
+    private int presenceTickMillis = 100;
+    private String journalDir = "chat-journal";
+    private int journalSegmentBytes = 64 * 1024 * 1024;
+    private int journalMaxSegments = 16;
+    private int journalFsyncMillis = 200;
+    private int journalQueueCapacity = 65536;
+    private int replayOnJoin = 50;
+    private int historyPageSize = 100;
+    private int resumeGraceMillis = 30_000;
+    private int resumeBufferSize = 4096;
+    private boolean jmx = true;
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    // Connections waiting to be accepted; 0 leaves it to the platform (50 on most)
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = Math.max(0, backlog);
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = Math.max(1, eventLoops);
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public void setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = Math.max(1, outboundQueueCapacity);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean isWriteBatching() {
+        return writeBatching;
+    }
+
+    public void setWriteBatching(boolean writeBatching) {
+        this.writeBatching = writeBatching;
+    }
+
+    public int getMaxWriteBatch() {
+        return maxWriteBatch;
+    }
+
+    public void setMaxWriteBatch(int maxWriteBatch) {
+        this.maxWriteBatch = Math.max(1, maxWriteBatch);
+    }
+
+    // Messages gathered into one socket write; 1 when batching is off
+    public int getWriteBatchLimit() {
+        return writeBatching ? maxWriteBatch : 1;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    // 0 keeps the operating system default
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    // Whether clients that ask for length-prefixed frames get them
+    public boolean isBinaryFraming() {
+        return binaryFraming;
+    }
+
+    public void setBinaryFraming(boolean binaryFraming) {
+        this.binaryFraming = binaryFraming;
+    }
+
+    // The room every client starts in and returns to on /leave
+    public String getDefaultRoom() {
+        return defaultRoom;
+    }
+
+    public void setDefaultRoom(String defaultRoom) {
+        // Checked here rather than when the first client is put in it
+        if (!RoomIndex.isValidName(defaultRoom)) {
+            throw new IllegalArgumentException("defaultRoom must be 1-32 letters, digits, '-' or '_': " + defaultRoom);
+        }
+        this.defaultRoom = defaultRoom;
+    }
+
+    public ServerLog.Level getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(ServerLog.Level logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    // Log one in every N per-message events ("Received: ..."); 1 logs them all
+    public int getLogSampleEvery() {
+        return logSampleEvery;
+    }
+
+    public void setLogSampleEvery(int logSampleEvery) {
+        this.logSampleEvery = Math.max(1, logSampleEvery);
+    }
+
+    // Log events buffered for the log thread before new ones are dropped
+    public int getLogBufferSize() {
+        return logBufferSize;
+    }
+
+    public void setLogBufferSize(int logBufferSize) {
+        this.logBufferSize = Math.max(2, logBufferSize);
+    }
+
+    // Lines the server window keeps; older ones move to the log file
+    public int getLogViewLines() {
+        return logViewLines;
+    }
+
+    public void setLogViewLines(int logViewLines) {
+        this.logViewLines = Math.max(100, logViewLines);
+    }
+
+    // Empty to discard lines that scroll out of the server window
+    public String getLogFile() {
+        return logFile;
+    }
+
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
+
+    public long getLogFileMaxBytes() {
+        return logFileMaxBytes;
+    }
+
+    public void setLogFileMaxBytes(long logFileMaxBytes) {
+        this.logFileMaxBytes = Math.max(1024, logFileMaxBytes);
+    }
+
+    // Rolled-over log files kept next to the current one
+    public int getLogFiles() {
+        return logFiles;
+    }
+
+    public void setLogFiles(int logFiles) {
+        this.logFiles = Math.max(1, logFiles);
+    }
+
+    // Roster changes are batched and pushed to clients once per tick
+    public int getPresenceTickMillis() {
+        return presenceTickMillis;
+    }
+
+    public void setPresenceTickMillis(int presenceTickMillis) {
+        this.presenceTickMillis = Math.max(1, presenceTickMillis);
+    }
+
+    // Empty to keep no message history
+    public String getJournalDir() {
+        return journalDir;
+    }
+
+    public void setJournalDir(String journalDir) {
+        this.journalDir = journalDir;
+    }
+
+    // Size of each mapped journal file; a full one is closed and a new one started
+    public int getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    public void setJournalSegmentBytes(int journalSegmentBytes) {
+        this.journalSegmentBytes = Math.max(1024 * 1024, journalSegmentBytes);
+    }
+
+    // Journal files kept; the oldest is deleted when a new one would exceed this
+    public int getJournalMaxSegments() {
+        return journalMaxSegments;
+    }
+
+    public void setJournalMaxSegments(int journalMaxSegments) {
+        this.journalMaxSegments = Math.max(1, journalMaxSegments);
+    }
+
+    // Journal writes are forced to disk at most this often, together
+    public int getJournalFsyncMillis() {
+        return journalFsyncMillis;
+    }
+
+    public void setJournalFsyncMillis(int journalFsyncMillis) {
+        this.journalFsyncMillis = Math.max(1, journalFsyncMillis);
+    }
+
+    // Messages waiting for the journal thread before new ones are left out of the history
+    public int getJournalQueueCapacity() {
+        return journalQueueCapacity;
+    }
+
+    public void setJournalQueueCapacity(int journalQueueCapacity) {
+        this.journalQueueCapacity = Math.max(1, journalQueueCapacity);
+    }
+
+    // Recent room messages sent to a client entering the room; 0 sends none
+    public int getReplayOnJoin() {
+        return replayOnJoin;
+    }
+
+    public void setReplayOnJoin(int replayOnJoin) {
+        this.replayOnJoin = Math.max(0, replayOnJoin);
+    }
+
+    // Most messages one /history command sends; the client asks again for the next page
+    public int getHistoryPageSize() {
+        return historyPageSize;
+    }
+
+    public void setHistoryPageSize(int historyPageSize) {
+        this.historyPageSize = Math.max(1, historyPageSize);
+    }
+
+    // How long a dropped binary client's name, room and presence are held for it to reconnect;
+    // 0 announces every drop at once
+    public int getResumeGraceMillis() {
+        return resumeGraceMillis;
+    }
+
+    public void setResumeGraceMillis(int resumeGraceMillis) {
+        this.resumeGraceMillis = Math.max(0, resumeGraceMillis);
+    }
+
+    // Recent messages kept in memory to fill a reconnected client's gap, and to replay on join
+    // the ones the journal has not written yet
+    public int getResumeBufferSize() {
+        return resumeBufferSize;
+    }
+
+    public void setResumeBufferSize(int resumeBufferSize) {
+        this.resumeBufferSize = Math.max(1, resumeBufferSize);
+    }
+
+    // Publishes ServerMetrics as an MXBean
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    // Reads "chat.*" keys, e.g. java -Dchat.engine=nio -jar ChatServer.jar
+    public static ServerConfig fromProperties(Properties props) {
+        ServerConfig config = new ServerConfig();
+        config.setPort(intProperty(props, "chat.port", config.getPort()));
+        config.setBindAddress(props.getProperty("chat.bindAddress", config.getBindAddress()).trim());
+        config.setBacklog(intProperty(props, "chat.backlog", config.getBacklog()));
+        String engine = props.getProperty("chat.engine");
+        if (engine != null) {
+            config.setEngine(Engine.valueOf(engine.trim().toUpperCase(Locale.ROOT)));
+        }
+        config.setEventLoops(intProperty(props, "chat.eventLoops", config.getEventLoops()));
+        config.setReadBufferSize(intProperty(props, "chat.readBufferSize", config.getReadBufferSize()));
+        config.setMaxLineLength(intProperty(props, "chat.maxLineLength", config.getMaxLineLength()));
+        config.setOutboundQueueCapacity(
+                intProperty(props, "chat.outboundQueueCapacity", config.getOutboundQueueCapacity()));
+        String overflowPolicy = props.getProperty("chat.overflowPolicy");
+        if (overflowPolicy != null) {
+            config.setOverflowPolicy(OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT)));
+        }
+        config.setWriteBatching(booleanProperty(props, "chat.writeBatching", config.isWriteBatching()));
+        config.setMaxWriteBatch(intProperty(props, "chat.maxWriteBatch", config.getMaxWriteBatch()));
+        config.setTcpNoDelay(booleanProperty(props, "chat.tcpNoDelay", config.isTcpNoDelay()));
+        config.setSendBufferSize(intProperty(props, "chat.sendBufferSize", config.getSendBufferSize()));
+        config.setReceiveBufferSize(intProperty(props, "chat.receiveBufferSize", config.getReceiveBufferSize()));
+        config.setBinaryFraming(booleanProperty(props, "chat.binaryFraming", config.isBinaryFraming()));
+        config.setDefaultRoom(props.getProperty("chat.defaultRoom", config.getDefaultRoom()).trim());
+        String logLevel = props.getProperty("chat.logLevel");
+        if (logLevel != null) {
+            config.setLogLevel(ServerLog.Level.valueOf(logLevel.trim().toUpperCase(Locale.ROOT)));
+        }
+        config.setLogSampleEvery(intProperty(props, "chat.logSampleEvery", config.getLogSampleEvery()));
+        config.setLogBufferSize(intProperty(props, "chat.logBufferSize", config.getLogBufferSize()));
+        config.setLogViewLines(intProperty(props, "chat.logViewLines", config.getLogViewLines()));
+        config.setLogFile(props.getProperty("chat.logFile", config.getLogFile()).trim());
+        String logFileMaxBytes = props.getProperty("chat.logFileMaxBytes");
+        if (logFileMaxBytes != null) {
+            config.setLogFileMaxBytes(Long.parseLong(logFileMaxBytes.trim()));
+        }
+        config.setLogFiles(intProperty(props, "chat.logFiles", config.getLogFiles()));
+        config.setPresenceTickMillis(intProperty(props, "chat.presenceTickMillis", config.getPresenceTickMillis()));
+        config.setJournalDir(props.getProperty("chat.journalDir", config.getJournalDir()).trim());
+        config.setJournalSegmentBytes(
+                intProperty(props, "chat.journalSegmentBytes", config.getJournalSegmentBytes()));
+        config.setJournalMaxSegments(intProperty(props, "chat.journalMaxSegments", config.getJournalMaxSegments()));
+        config.setJournalFsyncMillis(intProperty(props, "chat.journalFsyncMillis", config.getJournalFsyncMillis()));
+        config.setJournalQueueCapacity(
+                intProperty(props, "chat.journalQueueCapacity", config.getJournalQueueCapacity()));
+        config.setReplayOnJoin(intProperty(props, "chat.replayOnJoin", config.getReplayOnJoin()));
+        config.setHistoryPageSize(intProperty(props, "chat.historyPageSize", config.getHistoryPageSize()));
+        config.setResumeGraceMillis(intProperty(props, "chat.resumeGraceMillis", config.getResumeGraceMillis()));
+        config.setResumeBufferSize(intProperty(props, "chat.resumeBufferSize", config.getResumeBufferSize()));
+        config.setJmx(booleanProperty(props, "chat.jmx", config.isJmx()));
+        return config;
+    }
+
+    // Every "chat.*" key fromProperties() reads, with this config's values
+    public Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty("chat.port", String.valueOf(port));
+        props.setProperty("chat.bindAddress", bindAddress);
+        props.setProperty("chat.backlog", String.valueOf(backlog));
+        props.setProperty("chat.engine", engine.name().toLowerCase(Locale.ROOT));
+        props.setProperty("chat.eventLoops", String.valueOf(eventLoops));
+        props.setProperty("chat.readBufferSize", String.valueOf(readBufferSize));
+        props.setProperty("chat.maxLineLength", String.valueOf(maxLineLength));
+        props.setProperty("chat.outboundQueueCapacity", String.valueOf(outboundQueueCapacity));
+        props.setProperty("chat.overflowPolicy", overflowPolicy.name().toLowerCase(Locale.ROOT));
+        props.setProperty("chat.writeBatching", String.valueOf(writeBatching));
+        props.setProperty("chat.maxWriteBatch", String.valueOf(maxWriteBatch));
+        props.setProperty("chat.tcpNoDelay", String.valueOf(tcpNoDelay));
+        props.setProperty("chat.sendBufferSize", String.valueOf(sendBufferSize));
+        props.setProperty("chat.receiveBufferSize", String.valueOf(receiveBufferSize));
+        props.setProperty("chat.binaryFraming", String.valueOf(binaryFraming));
+        props.setProperty("chat.defaultRoom", defaultRoom);
+        props.setProperty("chat.logLevel", logLevel.name().toLowerCase(Locale.ROOT));
+        props.setProperty("chat.logSampleEvery", String.valueOf(logSampleEvery));
+        props.setProperty("chat.logBufferSize", String.valueOf(logBufferSize));
+        props.setProperty("chat.logViewLines", String.valueOf(logViewLines));
+        props.setProperty("chat.logFile", logFile);
+        props.setProperty("chat.logFileMaxBytes", String.valueOf(logFileMaxBytes));
+        props.setProperty("chat.logFiles", String.valueOf(logFiles));
+        props.setProperty("chat.presenceTickMillis", String.valueOf(presenceTickMillis));
+        props.setProperty("chat.journalDir", journalDir);
+        props.setProperty("chat.journalSegmentBytes", String.valueOf(journalSegmentBytes));
+        props.setProperty("chat.journalMaxSegments", String.valueOf(journalMaxSegments));
+        props.setProperty("chat.journalFsyncMillis", String.valueOf(journalFsyncMillis));
+        props.setProperty("chat.journalQueueCapacity", String.valueOf(journalQueueCapacity));
+        props.setProperty("chat.replayOnJoin", String.valueOf(replayOnJoin));
+        props.setProperty("chat.historyPageSize", String.valueOf(historyPageSize));
+        props.setProperty("chat.resumeGraceMillis", String.valueOf(resumeGraceMillis));
+        props.setProperty("chat.resumeBufferSize", String.valueOf(resumeBufferSize));
+        props.setProperty("chat.jmx", String.valueOf(jmx));
+        return props;
+    }
+
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static boolean booleanProperty(Properties props, String key, boolean defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Server log events go into a bounded lock-free ring and a background thread hands them to the
+// sinks in batches, so a connection thread never waits on the console or the GUI. When the ring
+// is full, events are dropped and counted rather than blocking the caller. Per-message events
+// can be sampled down to one in N.
+class ServerLog {
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    static final class Event {
+        final long timestamp;
+        final Level level;
+        final String message;
+
+        Event(long timestamp, Level level, String message) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    // Receives each batch once, on the log thread
+    interface Sink {
+        void write(List<Event> batch);
+    }
+
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+
+    private final Level threshold;
+    private final int sampleEvery;
+    private final Ring ring;
+    private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean closed;
+
+    ServerLog(Level threshold, int sampleEvery, int capacity) {
+        this.threshold = threshold;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.ring = new Ring(capacity);
+        drainer = new Thread(this::drainLoop, "chat-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    void addSink(Sink sink) {
+        sinks.add(sink);
+    }
+
+    boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    // For events that happen once per chat message: true for one call in every sampleEvery
+    boolean sampleMessageEvent() {
+        return isEnabled(Level.INFO) && (sampleEvery == 1 || sampleCounter.getAndIncrement() % sampleEvery == 0);
+    }
+
+    void log(Level level, String message) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Event event = new Event(System.currentTimeMillis(), level, message);
+        if (closed) {
+            // Stragglers after close (e.g. connections winding down) are written directly
+            write(List.of(event));
+        } else if (!ring.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    // Writes out what is queued and stops the log thread
+    void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        List<Event> batch = new ArrayList<>(MAX_BATCH);
+        long reportedDrops = 0;
+        while (true) {
+            Event event;
+            while (batch.size() < MAX_BATCH && (event = ring.poll()) != null) {
+                batch.add(event);
+            }
+            long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                batch.add(new Event(System.currentTimeMillis(), Level.WARN,
+                        "Log buffer full, " + (drops - reportedDrops) + " log events dropped"));
+                reportedDrops = drops;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            } else if (closed) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void write(List<Event> batch) {
+        for (Sink sink : sinks) {
+            try {
+                sink.write(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Log sink failed: " + e);
+            }
+        }
+    }
+
+    // Bounded multi-producer ring (Vyukov's array queue); only the log thread polls. Each slot's
+    // sequence says whose turn it is: pos for the producer claiming it, pos + 1 once it is filled.
+    private static final class Ring {
+        private final Event[] events;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private long head;
+
+        Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            events = new Event[size];
+            sequences = new AtomicLongArray(size);
+            mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Event event) {
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        events[index] = event;
+                        // The volatile store publishes the event to the log thread
+                        sequences.set(index, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        Event poll() {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            Event event = events[index];
+            events[index] = null;
+            sequences.set(index, head + events.length);
+            head++;
+            return event;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,252 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the server's hot paths: striped adders and lock-free histograms, so recording
+// never contends. A once-a-second tick turns the totals into rates and swaps the latency
+// histograms every window, so both describe recent traffic rather than the whole run. Queue
+// depths are only looked at when someone asks.
+class ServerMetrics implements ServerMetricsMXBean {
+    static final int WINDOW_SECONDS = 10;
+    private static final int DEEPEST_QUEUES = 10;
+
+    private final Collection<? extends ChatServer.Connection> clients;
+    private final WriteStats writeStats;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private volatile LatencyHistogram fanOut = new LatencyHistogram();
+    private volatile LatencyHistogram handshake = new LatencyHistogram();
+    private volatile LatencyHistogram lastFanOut = new LatencyHistogram();
+    private volatile LatencyHistogram lastHandshake = new LatencyHistogram();
+    // Totals at the previous tick and the rates since; only the tick writes them
+    private final long[] previous = new long[5];
+    private volatile double[] rates = new double[5];
+    private long previousTickNanos = System.nanoTime();
+    private int ticks;
+
+    ServerMetrics(Collection<? extends ChatServer.Connection> clients, WriteStats writeStats) {
+        this.clients = clients;
+        this.writeStats = writeStats;
+    }
+
+    void recordAccept() {
+        accepted.increment();
+    }
+
+    void recordMessageIn() {
+        messagesIn.increment();
+    }
+
+    void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    // From taking the sequence number to the message being queued for the last member
+    void recordFanOut(long nanos) {
+        fanOut.record(nanos);
+    }
+
+    // From accepting the connection to the client having joined its room
+    void recordHandshake(long nanos) {
+        handshake.record(nanos);
+    }
+
+    // For the blocking engines, which read through a stream rather than into buffers
+    InputStream countBytesIn(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesIn.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    // Runs once a second on the server's timer thread
+    void tick() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - previousTickNanos) / 1e9;
+        previousTickNanos = now;
+        long[] totals = { getAcceptedTotal(), getMessagesInTotal(), getMessagesOutTotal(), getBytesInTotal(),
+                getBytesOutTotal() };
+        double[] next = new double[totals.length];
+        for (int i = 0; i < totals.length; i++) {
+            next[i] = (totals[i] - previous[i]) / seconds;
+            previous[i] = totals[i];
+        }
+        rates = next;
+        if (++ticks % WINDOW_SECONDS == 0) {
+            // A recording racing the swap lands in the old window and is lost, which a window
+            // of thousands of samples does not notice
+            lastFanOut = fanOut;
+            fanOut = new LatencyHistogram();
+            lastHandshake = handshake;
+            handshake = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public int getConnections() {
+        return clients.size();
+    }
+
+    @Override
+    public long getAcceptedTotal() {
+        return accepted.sum();
+    }
+
+    @Override
+    public double getAcceptsPerSecond() {
+        return rates[0];
+    }
+
+    @Override
+    public long getMessagesInTotal() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return rates[1];
+    }
+
+    @Override
+    public long getMessagesOutTotal() {
+        return writeStats.getMessages();
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return rates[2];
+    }
+
+    @Override
+    public long getBytesInTotal() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return rates[3];
+    }
+
+    @Override
+    public long getBytesOutTotal() {
+        return writeStats.getBytes();
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return rates[4];
+    }
+
+    @Override
+    public double getMessagesPerWrite() {
+        return writeStats.getMessagesPerWrite();
+    }
+
+    @Override
+    public long getFanOutCount() {
+        return lastFanOut.getCount();
+    }
+
+    @Override
+    public long getFanOutMicrosP50() {
+        return micros(lastFanOut.valueAt(50));
+    }
+
+    @Override
+    public long getFanOutMicrosP99() {
+        return micros(lastFanOut.valueAt(99));
+    }
+
+    @Override
+    public long getFanOutMicrosP999() {
+        return micros(lastFanOut.valueAt(99.9));
+    }
+
+    @Override
+    public long getFanOutMicrosMax() {
+        return micros(lastFanOut.getMax());
+    }
+
+    @Override
+    public long getHandshakeCount() {
+        return lastHandshake.getCount();
+    }
+
+    @Override
+    public long getHandshakeMicrosP50() {
+        return micros(lastHandshake.valueAt(50));
+    }
+
+    @Override
+    public long getHandshakeMicrosP99() {
+        return micros(lastHandshake.valueAt(99));
+    }
+
+    @Override
+    public long getHandshakeMicrosMax() {
+        return micros(lastHandshake.getMax());
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ChatServer.Connection client : clients) {
+            max = Math.max(max, client.queueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getQueuedMessages() {
+        long total = 0;
+        for (ChatServer.Connection client : clients) {
+            total += client.queueDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Integer> getDeepestQueues() {
+        List<Map.Entry<String, Integer>> depths = new ArrayList<>();
+        for (ChatServer.Connection client : clients) {
+            int depth = client.queueDepth();
+            if (depth > 0 && client.getClientName() != null) {
+                depths.add(Map.entry(client.getClientName(), depth));
+            }
+        }
+        depths.sort(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()));
+        Map<String, Integer> deepest = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : depths.subList(0, Math.min(DEEPEST_QUEUES, depths.size()))) {
+            deepest.put(entry.getKey(), entry.getValue());
+        }
+        return deepest;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
\ No newline at end of file
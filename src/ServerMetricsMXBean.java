@@ -0,0 +1,55 @@
+import java.util.Map;
+
+// What ServerMetrics publishes over JMX as chat606:type=ChatServer,port=<port>. Totals count
+// since the server started, rates are over the last second, and latencies over the last
+// complete window of ServerMetrics.WINDOW_SECONDS.
+public interface ServerMetricsMXBean {
+    int getConnections();
+
+    long getAcceptedTotal();
+
+    double getAcceptsPerSecond();
+
+    long getMessagesInTotal();
+
+    double getMessagesInPerSecond();
+
+    long getMessagesOutTotal();
+
+    double getMessagesOutPerSecond();
+
+    long getBytesInTotal();
+
+    double getBytesInPerSecond();
+
+    long getBytesOutTotal();
+
+    double getBytesOutPerSecond();
+
+    double getMessagesPerWrite();
+
+    long getFanOutCount();
+
+    long getFanOutMicrosP50();
+
+    long getFanOutMicrosP99();
+
+    long getFanOutMicrosP999();
+
+    long getFanOutMicrosMax();
+
+    long getHandshakeCount();
+
+    long getHandshakeMicrosP50();
+
+    long getHandshakeMicrosP99();
+
+    long getHandshakeMicrosMax();
+
+    int getMaxQueueDepth();
+
+    long getQueuedMessages();
+
+    // Client name -> messages waiting, for the clients with the longest queues
+    Map<String, Integer> getDeepestQueues();
+}
\ No newline at end of file
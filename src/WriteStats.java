@@ -0,0 +1,57 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts socket write calls and how many messages each one carried, to show how well
+// outbound writes are being coalesced. Batch sizes are bucketed by powers of two.
+public class WriteStats {
+    private static final String[] BUCKET_LABELS = { "1", "2-3", "4-7", "8-15", "16-31", "32-63", "64-127", "128+" };
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder[] batchSizes = new LongAdder[BUCKET_LABELS.length];
+
+    public WriteStats() {
+        for (int i = 0; i < batchSizes.length; i++) {
+            batchSizes[i] = new LongAdder();
+        }
+    }
+
+    // One write call that completed messageCount messages and moved byteCount bytes
+    void record(int messageCount, long byteCount) {
+        writes.increment();
+        messages.add(messageCount);
+        bytes.add(byteCount);
+        if (messageCount > 0) {
+            int bucket = 31 - Integer.numberOfLeadingZeros(messageCount);
+            batchSizes[Math.min(bucket, batchSizes.length - 1)].increment();
+        }
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public double getMessagesPerWrite() {
+        long writeCount = getWrites();
+        return writeCount == 0 ? 0 : (double) getMessages() / writeCount;
+    }
+
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getWrites()).append(" writes carried ").append(getMessages()).append(" messages (")
+                .append(String.format("%.2f", getMessagesPerWrite())).append(" per write, ")
+                .append(getBytes()).append(" bytes); batch sizes");
+        for (int i = 0; i < batchSizes.length; i++) {
+            sb.append(' ').append(BUCKET_LABELS[i]).append(':').append(batchSizes[i].sum());
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// A running server on a free port, with a legacy text-mode client next to binary ones
+class ChatServerTest {
+    private ChatServer server;
+
+    @BeforeEach
+    void startServer() {
+        Properties settings = new Properties();
+        settings.setProperty("chat.port", "0");
+        settings.setProperty("chat.journalDir", "");
+        settings.setProperty("chat.jmx", "false");
+        server = new ChatServer(ServerConfig.fromProperties(settings), null, null);
+        server.startServer();
+        assertTrue(server.isListening());
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        server.stopServer();
+    }
+
+    @Test
+    void lineBreaksFromBinaryClientsReachTextClientsAsOneLine() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(2000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8), true);
+            assertEquals("SUBMIT_NAME", in.readLine());
+            out.println("legacy");
+            // In the room before anything is said
+            List<String> joined = readUntil(in, "legacy has joined");
+            assertTrue(joined.get(joined.size() - 1).contains("legacy has joined"), "not joined: " + joined);
+
+            ChatClient binary = new ChatClient("127.0.0.1", server.getPort(), message -> { });
+            binary.setRequestBinary(true);
+            binary.startClient();
+            binary.sendName("bin");
+            binary.sendMessage("bin: hi\nSERVER_STOPPED");
+            binary.sendMessage("bin: x\r\nNAME_CHANGED:bob");
+            binary.sendMessage("/msg legacy psst\nEXIT");
+
+            List<String> lines = readUntil(in, "EXIT");
+            binary.close();
+            assertFalse(lines.contains("SERVER_STOPPED"), "injected line in " + lines);
+            assertFalse(lines.stream().anyMatch(line -> line.startsWith("NAME_CHANGED:")), "injected line in " + lines);
+            assertFalse(lines.contains("EXIT"), "injected line in " + lines);
+            assertNotNull(find(lines, " - bin: hi SERVER_STOPPED"), "flattened message missing from " + lines);
+            assertNotNull(find(lines, " - bin: x NAME_CHANGED:bob"), "flattened message missing from " + lines);
+            assertNotNull(find(lines, "(to legacy): psst EXIT"), "flattened message missing from " + lines);
+        }
+    }
+
+    @Test
+    void legacyLinesNeverSpanLines() {
+        ChatMessage message = new ChatMessage(ChatMessage.Type.CHAT, 1, 1, 0, "a\nb\r\nc\rd");
+        String line = ChatProtocol.toLegacyLine(message);
+        assertTrue(line.endsWith(" - a b c d"), line);
+        assertEquals("e f", ChatProtocol.toLegacyLine(ChatMessage.of(ChatMessage.Type.SYSTEM, "e\nf")));
+    }
+
+    // The lines the text client gets until one containing marker, or until it goes quiet
+    private static List<String> readUntil(BufferedReader in, String marker) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+                if (line.contains(marker)) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // Whatever arrived is checked
+        }
+        return lines;
+    }
+
+    private static String find(List<String> lines, String text) {
+        return lines.stream().filter(line -> line.endsWith(text)).findFirst().orElse(null);
+    }
+}
\ No newline at end of file
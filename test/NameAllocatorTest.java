@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+// A login storm: many threads asking for the same name at once, as with reconnecting bots
+class NameAllocatorTest {
+    private static final int THREADS = 32;
+    private static final int PER_THREAD = 500;
+
+    @Test
+    void concurrentLoginsWithOneNameGetDistinctNames() throws Exception {
+        NameAllocator<Object> allocator = new NameAllocator<>();
+        Map<String, Object> handedOut = new ConcurrentHashMap<>();
+        runConcurrently(() -> {
+            for (int i = 0; i < PER_THREAD; i++) {
+                Object owner = new Object();
+                String name = allocator.allocate("bot", owner);
+                assertValid(name);
+                assertNull(handedOut.putIfAbsent(name, owner), "handed out twice: " + name);
+                assertSame(owner, allocator.get(name));
+            }
+        });
+        assertEquals(THREADS * PER_THREAD, handedOut.size());
+        // The lowest free suffixes are used, so the names are exactly bot, bot1 .. botN-1
+        for (int suffix = 1; suffix < THREADS * PER_THREAD; suffix++) {
+            assertTrue(handedOut.containsKey("bot" + suffix), "missing bot" + suffix);
+        }
+    }
+
+    @Test
+    void concurrentLoginsAndLogoutsNeverShareAName() throws Exception {
+        NameAllocator<Object> allocator = new NameAllocator<>();
+        Map<String, Object> held = new ConcurrentHashMap<>();
+        runConcurrently(() -> {
+            List<String> mine = new ArrayList<>();
+            for (int i = 0; i < PER_THREAD; i++) {
+                Object owner = new Object();
+                String name = allocator.allocate(i % 7 == 0 ? "bot1" : "bot", owner);
+                assertValid(name);
+                assertNull(held.putIfAbsent(name, owner), "held by two clients: " + name);
+                mine.add(name);
+                if (i % 2 == 1) {
+                    // Leave again, freeing the name for the others
+                    String leaving = mine.remove(mine.size() / 2);
+                    Object leaver = held.remove(leaving);
+                    allocator.release(leaving, leaver);
+                }
+            }
+            for (String name : mine) {
+                assertSame(held.get(name), allocator.get(name));
+            }
+        });
+        for (Map.Entry<String, Object> entry : held.entrySet()) {
+            assertSame(entry.getValue(), allocator.get(entry.getKey()));
+        }
+    }
+
+    private static void assertValid(String name) {
+        assertTrue(name != null && name.matches("bot\\d*"), "unexpected name " + name);
+        assertTrue(!name.startsWith("bot0"), "unexpected name " + name);
+    }
+
+    // Starts every thread at once and rethrows the first failure
+    private static void runConcurrently(Runnable task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
\ No newline at end of file